@@ -0,0 +1,94 @@
+package com.codingame.game.benchmarks;
+
+import com.codingame.game.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collision resolution on creeps scattered at random over the world, at increasing entity counts, plus map generation
+ * (which runs the same resolution on obstacles). Resolving a few creeps takes about as long as reading the clock, so
+ * each invocation scatters and resolves {@link #BATCH} separate sets of creeps in turn; {@link #scatter} measures the
+ * scattering alone, to be subtracted.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CollisionBenchmark {
+    private static final int BATCH = 20;
+
+    @Param({"10", "50", "200", "500"})
+    int entities;
+
+    private final List<List<FieldObject>> sets = new ArrayList<>();
+    private double[][] xs;
+    private double[][] ys;
+    private long mapSeed = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(1);
+        Player player = new Player();
+        player.setContext(new GameContext(new GameRandom(1), null));
+
+        xs = new double[BATCH][entities];
+        ys = new double[BATCH][entities];
+        for (int b = 0; b < BATCH; b++) {
+            List<FieldObject> units = new ArrayList<>();
+            for (int i = 0; i < entities; i++) {
+                switch (i % 7) {
+                    case 0: units.add(new GiantCreep(player, CreepType.GIANT, Collections.<Obstacle>emptyList())); break;
+                    case 1: case 2: units.add(new ArcherCreep(player, CreepType.ARCHER)); break;
+                    default: units.add(new KnightCreep(player, CreepType.KNIGHT)); break;
+                }
+                xs[b][i] = 1 + random.nextInt(Constants.INSTANCE.getWORLD_WIDTH() - 1);
+                ys[b][i] = 1 + random.nextInt(Constants.INSTANCE.getWORLD_HEIGHT() - 1);
+            }
+            sets.add(units);
+        }
+    }
+
+    private List<FieldObject> scattered(int b) {
+        List<FieldObject> units = sets.get(b);
+        for (int i = 0; i < entities; i++) units.get(i).moveTo(xs[b][i], ys[b][i]);
+        return units;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void scatter(Blackhole blackhole) {
+        for (int b = 0; b < BATCH; b++) blackhole.consume(scattered(b));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void collisionCheck(Blackhole blackhole) {
+        for (int b = 0; b < BATCH; b++) {
+            List<FieldObject> units = scattered(b);
+            blackhole.consume(MapBuildingKt.collisionCheck(units, 0.0, new CollisionGrid(units, 0.0)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void fixCollisions(Blackhole blackhole) {
+        for (int b = 0; b < BATCH; b++) {
+            List<FieldObject> units = scattered(b);
+            MapBuildingKt.fixCollisions(units, 999);
+            blackhole.consume(units);
+        }
+    }
+
+    @Benchmark
+    public List<Obstacle> buildMap() {
+        return MapBuildingKt.buildMap(new GameContext(new GameRandom(++mapSeed), null));
+    }
+}
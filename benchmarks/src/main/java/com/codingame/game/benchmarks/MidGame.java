@@ -0,0 +1,93 @@
+package com.codingame.game.benchmarks;
+
+import com.codingame.game.Barracks;
+import com.codingame.game.GameEngine;
+import com.codingame.game.Obstacle;
+import com.codingame.game.Player;
+import com.codingame.game.Queen;
+import com.codingame.game.RestorableHost;
+import com.codingame.game.Structure;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A headless match between two copies of a simple scripted player: the queen builds on the closest free site, and
+ * every idle barracks trains as long as there is gold for it. Used to reach representative mid-game states.
+ */
+final class MidGame implements RestorableHost {
+    private static final String[] STRUCTURES = {"MINE", "TOWER", "BARRACKS-KNIGHT", "BARRACKS-ARCHER", "BARRACKS-GIANT"};
+
+    final List<Player> players = Arrays.asList(new Player(), new Player());
+    final GameEngine engine = new GameEngine(players, this, null);
+    private final Set<Player> inactive = new HashSet<>();
+    int turn = 0;
+
+    MidGame(int leagueLevel, long seed, int turns) {
+        engine.init(leagueLevel, seed);
+        while (turn < turns && !isOver()) playTurn();
+    }
+
+    boolean isOver() {
+        return getActivePlayers().size() < 2;
+    }
+
+    void playTurn() {
+        engine.playTurn(++turn, this::outputs);
+    }
+
+    private List<String> outputs(Player player) {
+        Queen queen = player.getQueenUnit();
+        Obstacle site = null;
+        for (Obstacle obstacle : engine.getObstacles()) {
+            if (obstacle.getStructure() != null) continue;
+            if (site == null || obstacle.distanceSquaredTo(queen) < site.distanceSquaredTo(queen)) site = obstacle;
+        }
+        String action = site == null ? "WAIT" : "BUILD " + site.getObstacleId() + " " + STRUCTURES[site.getObstacleId() % STRUCTURES.length];
+
+        StringBuilder train = new StringBuilder("TRAIN");
+        int gold = player.getGold();
+        for (Obstacle obstacle : engine.getObstacles()) {
+            Structure struc = obstacle.getStructure();
+            if (!(struc instanceof Barracks) || struc.getOwner() != player) continue;
+            Barracks barracks = (Barracks) struc;
+            int cost = barracks.getCreepType().getCost();
+            if (barracks.isTraining() || cost > gold) continue;
+            gold -= cost;
+            train.append(' ').append(obstacle.getObstacleId());
+        }
+        return Arrays.asList(action, train.toString());
+    }
+
+    @Override
+    public List<Player> getActivePlayers() {
+        List<Player> active = new ArrayList<>();
+        for (Player player : players) if (!inactive.contains(player)) active.add(player);
+        return active;
+    }
+
+    @Override
+    public void deactivate(Player player, String reason) {
+        inactive.add(player);
+    }
+
+    @Override
+    public void reactivate(Player player) {
+        inactive.remove(player);
+    }
+
+    @Override
+    public void addToGameSummary(String message) {
+    }
+
+    @Override
+    public void endGame() {
+    }
+
+    @Override
+    public void warn(String message, Throwable error) {
+    }
+}
@@ -0,0 +1,106 @@
+package com.codingame.game.benchmarks;
+
+import com.codingame.game.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tower targeting and giant pathing on a generated map, against an enemy army of increasing size. Towers melt and
+ * creeps die as they act, so each run starts from full health again; a giant's move takes about as long as reading the
+ * clock, so each invocation resets and runs {@link #BATCH} times in turn. {@link #resetTowers} and {@link #resetGiant}
+ * measure the resets alone, to be subtracted.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StructureBenchmark {
+    private static final int BATCH = 20;
+
+    @Param({"0", "20", "100", "500"})
+    int enemyCreeps;
+
+    private final List<Tower> towers = new ArrayList<>();
+    private Player enemy;
+    private GiantCreep giant;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        GameRandom random = new GameRandom(1);
+        GameContext context = new GameContext(random, null);
+        Player owner = new Player();
+        enemy = new Player();
+        for (Player player : new Player[]{owner, enemy}) player.setContext(context);
+        owner.setEnemyPlayer(enemy);
+        enemy.setEnemyPlayer(owner);
+
+        List<Obstacle> obstacles = MapBuildingKt.buildMap(context);
+        owner.setQueenUnit(new Queen(owner));
+        enemy.setQueenUnit(new Queen(enemy));
+        owner.getQueenUnit().moveTo(200.0, 200.0);
+        enemy.getQueenUnit().moveTo(1720.0, 800.0);
+
+        for (int i = 0; i < obstacles.size(); i += 2) {
+            obstacles.get(i).setTower(owner, Constants.TOWER_HP_MAXIMUM);
+            towers.add((Tower) obstacles.get(i).getStructure());
+        }
+        for (int i = 0; i < enemyCreeps; i++) {
+            KnightCreep creep = new KnightCreep(enemy, CreepType.KNIGHT);
+            creep.moveTo(1 + random.nextInt(1919), 1 + random.nextInt(999));
+            enemy.getActiveCreeps().add(creep);
+        }
+        giant = new GiantCreep(enemy, CreepType.GIANT, obstacles);
+    }
+
+    private void restoreTowers() {
+        for (Tower tower : towers) {
+            tower.setHealth(Constants.TOWER_HP_MAXIMUM);
+            tower.setAttackRadius(1000);
+        }
+        for (Creep creep : enemy.getActiveCreeps()) creep.setHealth(creep.getMaxHealth());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void resetTowers(Blackhole blackhole) {
+        for (int b = 0; b < BATCH; b++) {
+            restoreTowers();
+            blackhole.consume(towers);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void towerAct(Blackhole blackhole) {
+        for (int b = 0; b < BATCH; b++) {
+            restoreTowers();
+            for (Tower tower : towers) tower.act();
+            blackhole.consume(towers);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void resetGiant(Blackhole blackhole) {
+        for (int b = 0; b < BATCH; b++) {
+            giant.moveTo(1720.0, 800.0);
+            blackhole.consume(giant);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void giantMove(Blackhole blackhole) {
+        for (int b = 0; b < BATCH; b++) {
+            giant.moveTo(1720.0, 800.0);
+            giant.move(1.0);
+            blackhole.consume(giant);
+        }
+    }
+}
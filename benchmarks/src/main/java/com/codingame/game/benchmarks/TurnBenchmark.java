@@ -0,0 +1,82 @@
+package com.codingame.game.benchmarks;
+
+import com.codingame.game.GameSnapshot;
+import com.codingame.game.Player;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the referee does every turn: one turn of rules from a mid-game state, the per-player serialization of the game
+ * state, and a whole 200-turn match for scale; plus taking and restoring snapshots of those states. These measure
+ * {@link com.codingame.game.GameEngine#playTurn} rather than the referee's own gameTurn, which needs the SDK's game
+ * manager and only adds its player I/O on top. A turn changes the state it is played from, so {@link #playTurn}
+ * restores the mid-game snapshot before each one; {@link #restore} measures that alone, to be subtracted.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TurnBenchmark {
+
+    @State(Scope.Thread)
+    public static class GameState {
+        @Param({"20", "50", "80"})
+        int turns;
+
+        @Param({"4"})
+        int league;
+
+        @Param({"1"})
+        long seed;
+
+        MidGame game;
+        GameSnapshot snapshot;
+        int turn;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            game = new MidGame(league, seed, turns);
+            snapshot = game.engine.snapshot();
+            turn = game.turn;
+        }
+    }
+
+    @Benchmark
+    public MidGame playTurn(GameState state) {
+        state.game.engine.restore(state.snapshot);
+        state.game.turn = state.turn;
+        state.game.playTurn();
+        return state.game;
+    }
+
+    @Benchmark
+    public void sendGameStates(GameState state, Blackhole blackhole) {
+        for (Player player : state.game.getActivePlayers()) {
+            state.game.engine.sendGameState(player, line -> {
+                blackhole.consume(line);
+                return kotlin.Unit.INSTANCE;
+            });
+        }
+    }
+
+    @Benchmark
+    public GameSnapshot snapshot(GameState state) {
+        return state.game.engine.snapshot();
+    }
+
+    @Benchmark
+    public MidGame restore(GameState state) {
+        state.game.engine.restore(state.snapshot);
+        return state.game;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public MidGame wholeMatch() {
+        return new MidGame(4, 1, 200);
+    }
+}
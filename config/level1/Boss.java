@@ -1,4 +1,5 @@
 import java.util.*;
+import java.io.*;
 
 /*
 Level 1 Boss: Peon
@@ -8,7 +9,7 @@ Strategy: Build a single Knight Barracks and train a wave of knight troops every
 class Player {
 
     public static void main(String args[]) {
-        Scanner in = new Scanner(System.in);
+        IntReader in = new IntReader(System.in);
         int numObstacles = in.nextInt();
         ArrayList<Obst> obstacles = new ArrayList<Obst>();
         for (int i = 0; i < numObstacles; i++) {
@@ -96,4 +97,45 @@ class Obst{
         this.x = x;
         this.y = y;
     }
-}
\ No newline at end of file
+}
+
+/** Reads whitespace-separated ints straight from the bytes of a stream, much faster than a Scanner. */
+class IntReader {
+    private final InputStream in;
+    private final byte[] buffer = new byte[1 << 16];
+    private int length, position;
+
+    public IntReader(InputStream in){
+        this.in = in;
+    }
+
+    private int read(){
+        if (position == length){
+            try {
+                length = in.read(buffer, 0, buffer.length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            position = 0;
+            if (length <= 0){
+                length = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+
+    public int nextInt(){
+        int c = read();
+        while (c != -1 && c <= ' ') c = read();
+        if (c == -1) throw new NoSuchElementException();
+        boolean negative = c == '-';
+        if (negative) c = read();
+        int value = 0;
+        while (c >= '0' && c <= '9'){
+            value = value * 10 + (c - '0');
+            c = read();
+        }
+        return negative ? -value : value;
+    }
+}
@@ -1,24 +1,38 @@
 package anims;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.IntConsumer;
 
 import com.codingame.gameengine.core.AbstractPlayer;
 import com.codingame.gameengine.core.GameManager;
 import com.codingame.gameengine.core.Module;
 import com.codingame.gameengine.module.entities.GraphicEntityModule;
+import com.google.gson.Gson;
 import com.google.inject.Inject;
 
 public class AnimModule implements Module {
 
+    private static final Object[] NO_EVENTS = {};
+    private static final Gson GSON = new Gson();
+
     GameManager<AbstractPlayer> gameManager;
     @Inject GraphicEntityModule entityModule;
-    List<Anim> animEvents;
+
+    // this frame's events, column by column; the arrays are kept from frame to frame
+    private final List<String> names = new ArrayList<>();
+    private int[] nameIndices = new int[16];
+    private double[] times = new double[16];
+    private int[] xs = new int[16];
+    private int[] ys = new int[16];
+    private int count;
+    private IntConsumer frameSizeListener;
 
     @Inject
     AnimModule(GameManager<AbstractPlayer> gameManager) {
         this.gameManager = gameManager;
-        animEvents = new ArrayList<>();
         gameManager.registerModule(this);
     }
 
@@ -37,14 +51,60 @@ public class AnimModule implements Module {
         sendFrameData();
     }
 
-    public Anim createAnimationEvent(String id, double t) {
-        Anim animEvent = new Anim(id, t);
-        animEvents.add(animEvent);
-        return animEvent;
+    /**
+     * Reports the size in bytes of each frame sent to the view, as JSON, to the given listener. Frames are only
+     * serialized for it while a listener is set.
+     */
+    public void setFrameSizeListener(IntConsumer listener) {
+        frameSizeListener = listener;
+    }
+
+    /**
+     * Adds an animation event to this frame, at the same whole pixel as the entities drawn at (x, y). Events identical to
+     * one already in the frame would draw over it exactly, so they are merged.
+     * @return whether a new event was added
+     */
+    public boolean addAnimationEvent(String id, double t, double x, double y) {
+        int nameIndex = names.indexOf(id);
+        if (nameIndex < 0) {
+            nameIndex = names.size();
+            names.add(id);
+        }
+        int px = (int) x;
+        int py = (int) y;
+        for (int i = 0; i < count; i++) {
+            if (nameIndices[i] == nameIndex && times[i] == t && xs[i] == px && ys[i] == py) {
+                return false;
+            }
+        }
+        if (count == times.length) {
+            int capacity = count * 2;
+            nameIndices = Arrays.copyOf(nameIndices, capacity);
+            times = Arrays.copyOf(times, capacity);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+        }
+        nameIndices[count] = nameIndex;
+        times[count] = t;
+        xs[count] = px;
+        ys[count] = py;
+        count++;
+        return true;
     }
 
     private void sendFrameData() {
-        gameManager.setViewData("anims", animEvents);
-        animEvents.clear();
+        Object[] data = count == 0 ? NO_EVENTS : new Object[] {
+            names.toArray(new String[0]),
+            Arrays.copyOf(nameIndices, count),
+            Arrays.copyOf(times, count),
+            Arrays.copyOf(xs, count),
+            Arrays.copyOf(ys, count)
+        };
+        gameManager.setViewData("anims", data);
+        if (frameSizeListener != null) {
+            frameSizeListener.accept(GSON.toJson(data).getBytes(StandardCharsets.UTF_8).length);
+        }
+        names.clear();
+        count = 0;
     }
 }
@@ -4,17 +4,29 @@ import com.codingame.gameengine.core.AbstractPlayer;
 import com.codingame.gameengine.core.GameManager;
 import com.codingame.gameengine.core.Module;
 import com.codingame.gameengine.module.entities.Entity;
+import com.google.gson.Gson;
 import com.google.inject.Inject;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.IntConsumer;
 
 public class TooltipModule implements Module {
 
+  private static final Gson GSON = new Gson();
+
   GameManager<AbstractPlayer> gameManager;
   Map<Integer, Map<String, Object>> registrations;
   Map<Integer, Map<String, Object>> newRegistrations;
-  Map<Integer, String[]> extra, newExtra;
+  // extra lines are sent as indices into a table of every distinct line, itself sent as it grows
+  Map<Integer, int[]> extra, newExtra;
+  Map<String, Integer> lineIds;
+  List<String> newLines;
+  IntConsumer frameSizeListener;
 
   @Inject
   TooltipModule(GameManager<AbstractPlayer> gameManager) {
@@ -24,6 +36,8 @@ public class TooltipModule implements Module {
     newRegistrations = new HashMap<>();
     extra = new HashMap<>();
     newExtra = new HashMap<>();
+    lineIds = new HashMap<>();
+    newLines = new ArrayList<>();
   }
 
   @Override
@@ -42,14 +56,26 @@ public class TooltipModule implements Module {
   }
 
   private void sendFrameData() {
-    Object[] data = { newRegistrations, newExtra };
+    Object[] data = { newRegistrations, newExtra, newLines };
     gameManager.setViewData("tooltips", data);
+    if (frameSizeListener != null) {
+      frameSizeListener.accept(GSON.toJson(data).getBytes(StandardCharsets.UTF_8).length);
+    }
     newRegistrations.clear();
     newExtra.clear();
+    newLines.clear();
+  }
+
+  /**
+   * Reports the size in bytes of each frame sent to the view, as JSON, to the given listener. Frames are only
+   * serialized for it while a listener is set.
+   */
+  public void setFrameSizeListener(IntConsumer listener) {
+    frameSizeListener = listener;
   }
 
   public void registerEntity(Entity<?> entity) {
-    registerEntity(entity, new HashMap<>());
+    registerEntity(entity, Collections.emptyMap());
   }
 
   public void registerEntity(Entity<?> entity, Map<String, Object> params) {
@@ -62,9 +88,39 @@ public class TooltipModule implements Module {
 
   public void updateExtraTooltipText(Entity<?> entity, String... lines) {
     int id = entity.getId();
-    if (!lines.equals(extra.get(id))) {
-      newExtra.put(id, lines);
-      extra.put(id, lines);
+    int[] previous = extra.get(id);
+    if (previous != null && sameLines(previous, lines)) {
+      return;
+    }
+    int[] indices = new int[lines.length];
+    for (int i = 0; i < lines.length; i++) {
+      indices[i] = lineId(lines[i]);
+    }
+    newExtra.put(id, indices);
+    extra.put(id, indices);
+  }
+
+  private boolean sameLines(int[] indices, String[] lines) {
+    if (indices.length != lines.length) {
+      return false;
+    }
+    for (int i = 0; i < lines.length; i++) {
+      Integer known = lineIds.get(lines[i]);
+      if (known == null || known != indices[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int lineId(String line) {
+    Integer known = lineIds.get(line);
+    if (known != null) {
+      return known;
     }
+    int id = lineIds.size();
+    lineIds.put(line, id);
+    newLines.add(line);
+    return id;
   }
 }
@@ -0,0 +1,79 @@
+package com.codingame.game
+
+/**
+ * An in-process player: it is handed typed observations instead of input lines, and answers with typed actions. The
+ * engine checks and applies its actions directly, by the same rules as the lines of the text protocol, which stays the
+ * way external programs play.
+ */
+interface Agent {
+  fun act(observation: Observation): TurnActions
+}
+
+/** Everything a player is told at the start of a turn; owners are 0 for the player, 1 for its enemy and -1 for none. */
+data class Observation(
+  val gold: Int,
+  val touchedSiteId: Int,
+  val sites: List<SiteObservation>,
+  val units: List<UnitObservation>
+) {
+  val queen get() = units.first { it.isFriendly && it.creepType == null }
+  val enemyQueen get() = units.first { !it.isFriendly && it.creepType == null }
+}
+
+data class SiteObservation(
+  val siteId: Int,
+  val x: Int,
+  val y: Int,
+  val radius: Int,
+  val gold: Int,                          // -1 when out of sight
+  val maxMineSize: Int,                   // -1 when out of sight
+  val structureType: Int,                 // -1 = None, 0 = Mine, 1 = Tower, 2 = Barracks
+  val owner: Int,
+  val incomeRateOrHealthOrCooldown: Int,  // mine / tower / barracks
+  val attackRadiusOrCreepType: Int        // tower / barracks
+)
+
+data class UnitObservation(
+  val x: Int,
+  val y: Int,
+  val isFriendly: Boolean,
+  val creepType: CreepType?,              // null for a queen
+  val health: Int
+)
+
+sealed class QueenAction {
+  /** The first output line this action stands for. */
+  abstract val command: String
+
+  object Wait : QueenAction() {
+    override val command get() = "WAIT"
+  }
+
+  data class Move(val x: Int, val y: Int) : QueenAction() {
+    override val command get() = "MOVE $x $y"
+  }
+
+  data class BuildMine(val siteId: Int) : QueenAction() {
+    override val command get() = "BUILD $siteId MINE"
+  }
+
+  data class BuildTower(val siteId: Int) : QueenAction() {
+    override val command get() = "BUILD $siteId TOWER"
+  }
+
+  data class BuildBarracks(val siteId: Int, val creepType: CreepType) : QueenAction() {
+    override val command get() = "BUILD $siteId BARRACKS-$creepType"
+  }
+}
+
+data class TurnActions(val queen: QueenAction, val trainAt: List<Int> = emptyList()) {
+  /** The two output lines of the text protocol, e.g. for an [InputLog]; they are only formatted when read. */
+  fun lines(): List<String> = object : AbstractList<String>() {
+    override val size get() = 2
+    override fun get(index: Int) = when (index) {
+      0 -> queen.command
+      1 -> "TRAIN" + trainAt.joinToString("") { " $it" }
+      else -> throw IndexOutOfBoundsException("$index")
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package com.codingame.game
+
+import com.codingame.game.Constants.WORLD_HEIGHT
+import com.codingame.game.Constants.WORLD_WIDTH
+import java.util.Arrays
+
+/**
+ * Uniform grid broadphase for [collisionCheck]. Entities are binned by their centre into fixed-size cells covering the
+ * world (anything outside is clamped into the border cells), so memory only depends on the world size and the number
+ * of entities. Candidates are always returned in entity-list order, which keeps the resolution identical to a full
+ * pairwise pass.
+ */
+class CollisionGrid(private val entities: List<FieldObject>, private val acceptableGap: Double) {
+  private val cols = WORLD_WIDTH / CELL_SIZE + 1
+  private val rows = WORLD_HEIGHT / CELL_SIZE + 1
+  private val heads = IntArray(cols * rows) { -1 }
+  private val next = IntArray(entities.size)
+  private val cellOf = IntArray(entities.size) { -1 }
+  private val maxRadius = entities.map { it.radius }.max() ?: 0
+  private val candidates = IntArray(entities.size)
+
+  init {
+    entities.indices.forEach { relocate(it) }
+  }
+
+  private fun col(x: Double) = Math.floor(x / CELL_SIZE).toInt().coerceIn(0, cols - 1)
+  private fun row(y: Double) = Math.floor(y / CELL_SIZE).toInt().coerceIn(0, rows - 1)
+
+  /** Must be called whenever entity [index] may have moved. */
+  fun relocate(index: Int) {
+    val entity = entities[index]
+    val cell = row(entity.y) * cols + col(entity.x)
+    val oldCell = cellOf[index]
+    if (cell == oldCell) return
+
+    if (oldCell >= 0) {
+      if (heads[oldCell] == index) heads[oldCell] = next[index]
+      else {
+        var prev = heads[oldCell]
+        while (next[prev] != index) prev = next[prev]
+        next[prev] = next[index]
+      }
+    }
+    next[index] = heads[cell]
+    heads[cell] = index
+    cellOf[index] = cell
+  }
+
+  /**
+   * Collects, in ascending order, the indices greater than [after] of every entity that could overlap entity [index]
+   * at their current locations.
+   * @return the number of candidates, readable through [candidate]
+   */
+  fun collectCandidates(index: Int, after: Int): Int {
+    val entity = entities[index]
+    val reach = entity.radius + maxRadius + acceptableGap + 1.0
+    var count = 0
+    for (r in row(entity.y - reach)..row(entity.y + reach)) {
+      for (c in col(entity.x - reach)..col(entity.x + reach)) {
+        var other = heads[r * cols + c]
+        while (other >= 0) {
+          if (other > after && other != index) candidates[count++] = other
+          other = next[other]
+        }
+      }
+    }
+    Arrays.sort(candidates, 0, count)
+    return count
+  }
+
+  fun candidate(i: Int) = candidates[i]
+
+  companion object {
+    const val CELL_SIZE = 100
+  }
+}
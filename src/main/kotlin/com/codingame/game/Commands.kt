@@ -0,0 +1,111 @@
+package com.codingame.game
+
+/**
+ * Walks the tokens of a command line in place, cutting them exactly like `split(" ")` would, without allocating or
+ * throwing.
+ */
+class CommandTokens {
+  private var line = ""
+  private var lineEnd = 0
+  private var start = 0
+  private var end = 0
+  /** Set by [parseInt]. */
+  var intValue = 0
+    private set
+
+  /** Starts over on [line], ignoring the whitespace around it like `trim()` when [trim] is set. */
+  fun reset(line: String, trim: Boolean): CommandTokens {
+    var from = 0
+    var to = line.length
+    if (trim) {
+      while (from < to && line[from].isWhitespace()) from++
+      while (to > from && line[to - 1].isWhitespace()) to--
+    }
+    this.line = line
+    lineEnd = to
+    start = from
+    end = from - 1
+    return this
+  }
+
+  fun hasNext() = end < lineEnd
+
+  /** Moves to the next token. @return false if there was none */
+  fun next(): Boolean {
+    if (end >= lineEnd) return false
+    start = end + 1
+    end = start
+    while (end < lineEnd && line[end] != ' ') end++
+    return true
+  }
+
+  fun isToken(text: String) = end - start == text.length && line.regionMatches(start, text, 0, text.length)
+
+  fun text() = line.substring(start, end)
+
+  /** Reads the current token into [intValue], accepting exactly what `toIntOrNull()` does. */
+  fun parseInt(): Boolean {
+    var i = start
+    val negative = i < end && line[i] == '-'
+    if (i < end && (line[i] == '-' || line[i] == '+')) i++
+    if (i == end) return false
+    var magnitude = 0L
+    while (i < end) {
+      val digit = Character.digit(line[i++], 10)
+      if (digit < 0) return false
+      magnitude = magnitude * 10 + digit
+      if (magnitude > -Int.MIN_VALUE.toLong()) return false
+    }
+    if (!negative && magnitude > Int.MAX_VALUE) return false
+    intValue = (if (negative) -magnitude else magnitude).toInt()
+    return true
+  }
+}
+
+/**
+ * Why a command was turned down. Fatal errors deactivate the player, the others are only reported. The message is
+ * only built when the error gets reported, from the detail given along with it.
+ */
+enum class CommandError(val fatal: Boolean) {
+  EXPECTED_TRAIN(true),
+  BAD_TRAIN_SITE_ID(true),
+  NO_TRAIN_SITE(true),
+  NOT_A_BARRACKS(false),
+  BARRACKS_NOT_OWNED(false),
+  BARRACKS_TRAINING(false),
+  TRAINING_TWICE(false),
+  TRAINING_TOO_EXPENSIVE(false),
+  BAD_MOVE(true),
+  BAD_BUILD_SITE_ID(true),
+  NO_BUILD_SITE(true),
+  MISSING_STRUCTURE_TYPE(true),
+  UNKNOWN_COMMAND(true),
+  TOO_MANY_TOKENS(true),
+  BUILD_ON_ENEMY_SITE(false),
+  REBUILD_WHILE_TRAINING(false),
+  MISSING_BARRACKS_TYPE(true),
+  BAD_BARRACKS_TYPE(true),
+  BAD_STRUCTURE_TYPE(true);
+
+  fun message(detail: Any?) = when (this) {
+    EXPECTED_TRAIN -> "Expected TRAIN on the second line"
+    BAD_TRAIN_SITE_ID -> "Couldn't process siteId: $detail"
+    NO_TRAIN_SITE -> "No site with id = $detail"
+    NOT_A_BARRACKS -> "Cannot spawn from $detail: not a barracks"
+    BARRACKS_NOT_OWNED -> "Cannot spawn from $detail: not owned"
+    BARRACKS_TRAINING -> "Barracks $detail is training"
+    TRAINING_TWICE -> "Training from some barracks more than once"
+    TRAINING_TOO_EXPENSIVE -> "Training too many creeps ($detail total gold requested)"
+    BAD_MOVE -> "In MOVE command, x and y must be integers"
+    BAD_BUILD_SITE_ID -> "Could not parse siteId"
+    NO_BUILD_SITE -> "Site id $detail does not exist"
+    MISSING_STRUCTURE_TYPE -> "Missing structure type in BUILD command"
+    UNKNOWN_COMMAND -> "Didn't understand command: $detail"
+    TOO_MANY_TOKENS -> "Too many tokens after $detail command"
+    BUILD_ON_ENEMY_SITE -> "Cannot build: owned by enemy player"
+    REBUILD_WHILE_TRAINING -> "Cannot rebuild: training is in progress"
+    MISSING_BARRACKS_TYPE -> "BARRACKS type must be specified"
+    BAD_BARRACKS_TYPE -> "Invalid BARRACKS type: $detail"
+    BAD_STRUCTURE_TYPE -> "Invalid structure type: $detail"
+  }
+}
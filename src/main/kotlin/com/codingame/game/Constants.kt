@@ -41,10 +41,11 @@ object Constants {
   val WORLD_HEIGHT = viewportY.last - viewportY.first
 
   const val TOUCHING_DELTA = 5
+  const val CREEP_MOVE_SUBSTEPS = 5
   const val WOOD_FIXED_INCOME = 10
 }
 
-object Leagues {
+class Leagues {
   var towers = true
   var giants = true
   var mines = true
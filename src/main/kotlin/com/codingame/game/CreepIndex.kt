@@ -0,0 +1,114 @@
+package com.codingame.game
+
+import com.codingame.game.Constants.WORLD_HEIGHT
+import com.codingame.game.Constants.WORLD_WIDTH
+
+/** A player's creeps. Counts structural changes, so that the [CreepIndex] over it knows when to re-bin them. */
+class CreepList : ArrayList<Creep>() {
+  val modifications: Int get() = modCount
+}
+
+/**
+ * Nearest-creep queries over one player's creeps, for tower and archer targeting. Answers exactly like a `minBy` on the
+ * squared distance over the list, ties going to the earliest creep. Small armies are simply scanned; larger ones are
+ * binned into a uniform grid, which is only rebuilt after the list changed: a creep that moves is moved to its new cell
+ * on its own, since archers look for targets in between the moves of a substep.
+ */
+class CreepIndex(private val creeps: CreepList) {
+  private val cols = WORLD_WIDTH / CELL_SIZE + 1
+  private val rows = WORLD_HEIGHT / CELL_SIZE + 1
+  private val heads = IntArray(cols * rows)
+  private var next = IntArray(0)
+  private var cells = IntArray(0)
+  private var stale = true
+  private var builtModifications = -1
+
+  /** Must be called whenever [creep] moved. */
+  fun moved(creep: Creep) {
+    if (stale || builtModifications != creeps.modifications) return
+    val i = creep.indexSlot
+    // Replacing a creep in the list does not count as a change to it
+    if (i !in creeps.indices || creeps[i] !== creep) {
+      stale = true
+      return
+    }
+    val cell = cell(creep.x, creep.y)
+    val old = cells[i]
+    if (cell == old) return
+
+    if (heads[old] == i) heads[old] = next[i]
+    else {
+      var j = heads[old]
+      while (next[j] != i) j = next[j]
+      next[j] = next[i]
+    }
+    next[i] = heads[cell]
+    heads[cell] = i
+    cells[i] = cell
+  }
+
+  // Anything outside the world is binned in the border cells; clamping never brings two points closer together, so the
+  // ring bounds below still hold
+  private fun col(x: Double) = Math.floor(x / CELL_SIZE).toInt().coerceIn(0, cols - 1)
+  private fun row(y: Double) = Math.floor(y / CELL_SIZE).toInt().coerceIn(0, rows - 1)
+  private fun cell(x: Double, y: Double) = row(y) * cols + col(x)
+
+  private fun rebuild() {
+    heads.fill(-1)
+    if (next.size < creeps.size) {
+      next = IntArray(creeps.size * 2)
+      cells = IntArray(creeps.size * 2)
+    }
+    for (i in creeps.indices) {
+      val creep = creeps[i]
+      val cell = cell(creep.x, creep.y)
+      creep.indexSlot = i
+      cells[i] = cell
+      next[i] = heads[cell]
+      heads[cell] = i
+    }
+    stale = false
+    builtModifications = creeps.modifications
+  }
+
+  fun nearest(x: Double, y: Double): Creep? {
+    if (creeps.size <= LINEAR_SCAN_LIMIT) return creeps.minBy { distanceSquared(it.x, it.y, x, y) }
+    if (stale || builtModifications != creeps.modifications) rebuild()
+
+    val qc = col(x)
+    val qr = row(y)
+    var best = -1
+    var bestDistanceSquared = Double.POSITIVE_INFINITY
+    val maxRing = Math.max(cols, rows)
+    for (ring in 0 until maxRing) {
+      for (r in Math.max(0, qr - ring)..Math.min(rows - 1, qr + ring)) {
+        // Inner rows of the ring only have their two end cells in it
+        val step = if (ring == 0 || r == qr - ring || r == qr + ring) 1 else 2 * ring
+        var c = qc - ring
+        while (c <= qc + ring) {
+          if (c in 0 until cols) {
+            var i = heads[r * cols + c]
+            while (i >= 0) {
+              val d = distanceSquared(creeps[i].x, creeps[i].y, x, y)
+              if (d < bestDistanceSquared || (d == bestDistanceSquared && i < best)) {
+                best = i
+                bestDistanceSquared = d
+              }
+              i = next[i]
+            }
+          }
+          c += step
+        }
+      }
+      // Every cell further out is at least this far away
+      val bound = ring.toDouble() * CELL_SIZE
+      if (best >= 0 && bestDistanceSquared < bound * bound) break
+    }
+    return if (best >= 0) creeps[best] else null
+  }
+
+  companion object {
+    const val CELL_SIZE = 100
+    const val LINEAR_SCAN_LIMIT = 24
+  }
+}
@@ -0,0 +1,672 @@
+package com.codingame.game
+
+import anims.AnimModule
+import com.codingame.game.Constants.OBSTACLE_GOLD_INCREASE
+import com.codingame.game.Constants.OBSTACLE_GOLD_RANGE
+import com.codingame.gameengine.module.entities.Circle
+import com.codingame.gameengine.module.entities.Curve
+import com.codingame.gameengine.module.entities.Entity
+import com.codingame.gameengine.module.entities.GraphicEntityModule
+import com.codingame.gameengine.module.entities.Sprite
+import tooltipModule.TooltipModule
+import java.util.*
+
+var <T : Entity<*>?> Entity<T>.location: Vector2
+  get() = Vector2(x - viewportX.first, y - viewportY.first)
+
+  set(value) = setLocation(value.x, value.y)
+
+fun <T : Entity<*>?> Entity<T>.setLocation(x: Double, y: Double) {
+  this.x = (x + viewportX.first).toInt()
+  this.y = (y + viewportY.first).toInt()
+}
+
+/**
+ * Entities no longer shown, kept to be shown again rather than created anew: the entity module never drops an entity,
+ * so creating them for every creep and structure would grow the view with the length of the match rather than with
+ * what is on the field. Entities released during a turn still have keyframes in it, so they are only reused from the
+ * next turn on.
+ */
+private class EntityPool<T> {
+  private val free = HashMap<Int, ArrayDeque<T>>()
+  private val released = mutableListOf<Pair<Int, T>>()
+
+  /** @return released entities of the same [kind], if any */
+  fun acquire(kind: Int): T? = free[kind]?.pollFirst()
+
+  fun release(kind: Int, entities: T) {
+    released += kind to entities
+  }
+
+  fun endTurn() {
+    released.forEach { (kind, entities) -> free.getOrPut(kind) { ArrayDeque() }.addLast(entities) }
+    released.clear()
+  }
+}
+
+/**
+ * The [GameView] used by the [Referee]: draws the match with the graphic entity module, and feeds the tooltip and
+ * animation modules. Obstacle images are picked from [seed], so that replaying a match draws it the same way.
+ */
+class EntityGameView(
+  private val entityManager: GraphicEntityModule,
+  private val tooltipModule: TooltipModule,
+  private val animModule: AnimModule,
+  seed: Long
+) : GameView {
+  private val rando = Random(seed)
+  val payload = ViewPayloadStats()
+
+  // shared by every unit of a kind, rather than a map per spawn
+  private val queenTooltip = mapOf("type" to "Queen")
+  private val creepTooltips = CreepType.values().associate { it to mapOf("type" to it.toString()) }
+
+  // pooled by owner, and creep type for creeps: whatever does not depend on the site or the unit is already set
+  private val minePool = EntityPool<MineEntities>()
+  private val towerPool = EntityPool<TowerEntities>()
+  private val barracksPool = EntityPool<BarracksEntities>()
+  private val creepPool = EntityPool<UnitEntities>()
+
+  init {
+    entityManager.createSprite()
+      .setImage("Background.jpg")
+      .setBaseWidth(Constants.WORLD_WIDTH).setBaseHeight(Constants.WORLD_HEIGHT)
+      .setX(viewportX.first).setY(viewportY.first)
+      .setZIndex(0)
+
+    entityManager.createSprite()
+      .setImage("Hud.png")
+      .setBaseWidth(1920)
+      .setX(0).setY(1080)
+      .setAnchorY(1.0)
+      .setZIndex(4000)
+  }
+
+  override fun obstacleView(obstacle: Obstacle): ObstacleView = ObstacleSprites(obstacle)
+
+  override fun structureView(structure: Structure): StructureView = when (structure) {
+    is Mine -> MineSprites(structure)
+    is Tower -> TowerSprites(structure)
+    is Barracks -> BarracksSprites(structure)
+    else -> throw IllegalArgumentException("Unrecognized structure type: $structure")
+  }
+
+  override fun queenView(queen: Queen): UnitView = QueenSprites(queen)
+
+  override fun creepView(creep: Creep): CreepView = when (creep) {
+    is KnightCreep -> KnightSprites(creep)
+    is ArcherCreep -> ArcherSprites(creep)
+    is GiantCreep -> GiantSprites(creep)
+    else -> throw IllegalArgumentException("Unrecognized creep type: $creep")
+  }
+
+  override fun playerView(player: Player): PlayerView = PlayerHUD(entityManager, player, player.isSecondPlayer, payload)
+
+  /** To be called after each turn, once the turn's view frame is complete. */
+  fun endTurn() {
+    minePool.endTurn()
+    towerPool.endTurn()
+    barracksPool.endTurn()
+    creepPool.endTurn()
+    payload.endTurn()
+  }
+
+  /** Has the tooltip and animation modules report the serialized size of their frames to [payload]. */
+  fun measureFrames() {
+    tooltipModule.setFrameSizeListener { payload.addFrame(ViewModule.TOOLTIPS, it) }
+    animModule.setFrameSizeListener { payload.addFrame(ViewModule.ANIMATIONS, it) }
+  }
+
+  override fun animationEvent(id: String, t: Double, x: Double, y: Double) {
+    animModule.addAnimationEvent(id, t, x, y)
+  }
+
+  private fun creepKind(creep: Creep) = creep.owner.side * CreepType.values().size + creep.creepType.ordinal
+
+  private fun commit(t: Double, vararg entities: Entity<*>) {
+    entityManager.commitEntityState(t, *entities)
+    payload.add(ViewModule.ENTITIES, entities.size)
+  }
+
+  private inner class ObstacleSprites(private val obstacle: Obstacle) : ObstacleView {
+    private val obstacleImage = entityManager.createSprite()
+      .setImage("LC_${rando.nextInt(10) + 1}")
+      .setZIndex(20)
+      .setAnchor(0.5)
+
+    init {
+      tooltipModule.registerEntity(obstacleImage, hashMapOf<String, Any>("id" to obstacle.obstacleId, "type" to "Site"))
+    }
+
+    override fun moved() {
+      obstacleImage.setLocation(obstacle.x, obstacle.y)
+    }
+
+    override fun resized() {
+      obstacleImage.setScale(obstacle.radius * 2 / 220.0)
+    }
+
+    override fun structureChanged(previous: Structure?) {
+      val value = obstacle.structure
+      if (value != null && previous != value)
+        animationEvent("construction", 0.0, obstacle.x, obstacle.y)   // includes replacing
+      if (value == null && previous != null)
+        animationEvent("destruction", 0.0, obstacle.x, obstacle.y)
+
+      previous?.view?.hide()
+      value?.view?.update()
+      if (value == null) {
+        obstacleImage.alpha = 1.0
+      } else {
+        obstacleImage.alpha = 0.0
+        obstacleImage.image = "LieuDetruit"
+      }
+      obstacleImage.alpha = if (value == null) 1.0 else 0.0
+      commit(0.0, obstacleImage)
+    }
+
+    override fun update() {
+      val struc = obstacle.structure
+      struc?.view?.update()
+      val lines = listOf("Radius: ${obstacle.radius}") +
+        (if (obstacle.context.leagues.mines) listOf("Remaining gold: ${obstacle.gold}") else listOf()) +
+        struc?.view?.tooltipLines().orEmpty()
+
+      tooltipModule.updateExtraTooltipText(obstacleImage, *lines.toTypedArray())
+    }
+  }
+
+  private inner class MineEntities(owner: Player) {
+    val mineImage = entityManager.createSprite()
+      .setImage("Mine")
+      .setZIndex(40)
+      .setAnchor(0.5)!!
+
+    val pickaxeSprite = entityManager.createSprite()
+      .setImage(if (owner.isSecondPlayer) "Mine_Bleu" else "Mine_Rouge")
+      .setZIndex(41)
+      .setAnchor(0.5)!!
+
+    val text = entityManager.createText("")
+      .setFillColor(0xffffff)!!
+      .setZIndex(42)
+      .setFontFamily("Arial Black")
+      .setAnchorY(0.5)!!
+
+    val mineralBarOutline = entityManager.createRectangle()
+      .setHeight(15)
+      .setWidth(80)
+      .setLineColor(0)
+      .setLineWidth(1)
+      .setFillAlpha(0.0)
+      .setZIndex(401)!!
+
+    val mineralBarFill = entityManager.createRectangle()
+      .setHeight(15)
+      .setWidth(80)
+      .setFillColor(0xffbf00)
+      .setLineAlpha(0.0)!!
+      .setZIndex(400)!!
+
+    fun place(obstacle: Obstacle) {
+      mineImage.location = obstacle.location
+      mineImage.setScale(obstacle.radius * 2 / 220.0)
+      pickaxeSprite.location = obstacle.location + Vector2(0, -40)
+      text.location = obstacle.location + Vector2(0, -40)
+      mineralBarOutline.location = obstacle.location + Vector2(-40, -90)
+      mineralBarFill.location = obstacle.location + Vector2(-40, -90)
+    }
+
+    val all get() = arrayOf<Entity<*>>(mineImage, pickaxeSprite, text, mineralBarOutline, mineralBarFill)
+  }
+
+  private inner class MineSprites(private val mine: Mine) : StructureView {
+    private val obstacle = mine.obstacle
+
+    override fun tooltipLines(): List<String> = listOf(
+      "MINE (+${mine.incomeRate})"
+    )
+
+    // reused entities move to the site while still hidden, rather than slide there when shown
+    private val entities = minePool.acquire(mine.owner.side)?.also { it.place(obstacle); commit(0.0, *it.all) }
+      ?: MineEntities(mine.owner).also { it.place(obstacle) }
+    private val mineImage = entities.mineImage
+    private val pickaxeSprite = entities.pickaxeSprite
+    private val text = entities.text
+    private val mineralBarOutline = entities.mineralBarOutline
+    private val mineralBarFill = entities.mineralBarFill
+    private var released = false
+
+    // what the last commit showed; -1 when hidden
+    private var shownIncomeRate = -1
+    private var shownGoldWidth = -1
+
+    override fun hide() {
+      text.isVisible = false
+      pickaxeSprite.isVisible = false
+      mineImage.isVisible = false
+      mineralBarOutline.isVisible = false
+      mineralBarFill.isVisible = false
+      commit(0.51, text, pickaxeSprite, mineImage, mineralBarOutline, mineralBarFill)
+      shownIncomeRate = -1
+      shownGoldWidth = -1
+      if (!released) minePool.release(mine.owner.side, entities)
+      released = true
+    }
+
+    override fun update() {
+      val goldWidth = 80 * obstacle.gold / (OBSTACLE_GOLD_RANGE.last + 2 * OBSTACLE_GOLD_INCREASE)
+      if (shownIncomeRate == -1) {
+        text.text = "+${mine.incomeRate}"
+        text.isVisible = true
+        pickaxeSprite.isVisible = true
+        mineImage.isVisible = true
+        mineralBarOutline.isVisible = true
+        mineralBarFill.isVisible = true
+        mineralBarFill.width = goldWidth
+        commit(0.5, text, pickaxeSprite, mineImage, mineralBarOutline, mineralBarFill)
+      } else {
+        if (mine.incomeRate != shownIncomeRate) {
+          text.text = "+${mine.incomeRate}"
+          commit(0.5, text)
+        }
+        if (goldWidth != shownGoldWidth) {
+          mineralBarFill.width = goldWidth
+          commit(0.5, mineralBarFill)
+        }
+      }
+      shownIncomeRate = mine.incomeRate
+      shownGoldWidth = goldWidth
+    }
+  }
+
+  private inner class TowerEntities(owner: Player) {
+    val towerRangeCircle: Circle = entityManager.createCircle()
+      .setFillAlpha(0.0)
+      .setAlpha(0.2)
+      .setLineWidth(10)
+      .setZIndex(10)
+
+    val sprite = entityManager.createSpriteAnimation()
+      .setImages(*{
+        val color = if (owner.isSecondPlayer) "B" else "R"
+        (1..15).map {
+          "T$color${it.toString().padStart(2, '0')}"
+        }
+      }().toTypedArray())
+      .setZIndex(40)
+      .setAnchorX(0.5).setAnchorY(1 - (220.0 / 238.0 * 0.5))
+      .setStarted(true)
+      .setLoop(true)!!
+
+    val projectile = entityManager.createSprite()!!
+      .setImage(if (owner.isSecondPlayer) "Eclair_Bleu" else "Eclair_Rouge")
+      .setZIndex(50)
+      .setVisible(false)
+      .setAnchorX(0.5)
+      .setAnchorY(0.5)!!
+
+    fun place(obstacle: Obstacle) {
+      towerRangeCircle.location = obstacle.location
+      towerRangeCircle.radius = obstacle.radius
+      commit(0.0, towerRangeCircle)
+      sprite.location = obstacle.location
+      sprite.setScale(obstacle.radius * 2 / 220.0)
+    }
+  }
+
+  private inner class TowerSprites(private val tower: Tower) : StructureView {
+    private val obstacle = tower.obstacle
+
+    override fun tooltipLines(): List<String> = listOf(
+      "TOWER",
+      "Range: ${tower.attackRadius}",
+      "Health: ${tower.health}"
+    )
+
+    // a new range circle shows from the start of the turn with the default line color until the tower is shown;
+    // a reused sprite moves to the site while still hidden, rather than slide there when shown
+    private val entities = towerPool.acquire(tower.owner.side)?.also {
+      it.towerRangeCircle.isVisible = true
+      it.towerRangeCircle.lineColor = 0
+      it.place(obstacle)
+      commit(0.0, it.sprite)
+    } ?: TowerEntities(tower.owner).also { it.place(obstacle) }
+    private val towerRangeCircle = entities.towerRangeCircle
+    private val sprite = entities.sprite
+    private val projectile = entities.projectile
+    private var released = false
+
+    // the range the last commit showed; -1 when hidden
+    private var shownRadius = -1
+
+    override fun hide() {
+      towerRangeCircle.radius = obstacle.radius
+      towerRangeCircle.isVisible = false
+      sprite.isVisible = false
+      commit(0.51, towerRangeCircle, sprite)
+      shownRadius = -1
+      if (!released) towerPool.release(tower.owner.side, entities)
+      released = true
+    }
+
+    override fun update()
+    {
+      if (shownRadius == -1) {
+        towerRangeCircle.isVisible = true
+        towerRangeCircle.lineColor = if (tower.owner.isSecondPlayer) 0x8844ff else 0xff4444
+        sprite.isVisible = true
+        commit(0.5, towerRangeCircle, sprite)
+      }
+      if (tower.attackRadius != shownRadius) {
+        towerRangeCircle.radius = tower.attackRadius
+        commit(1.0, towerRangeCircle)
+        shownRadius = tower.attackRadius
+      }
+
+      val localAttackTarget = tower.attackTarget
+      if (localAttackTarget != null) {
+        projectile.isVisible = true
+        val projectileSource = obstacle.location - Vector2(0.0, obstacle.radius * 0.6)
+        val obsToTarget = localAttackTarget.location - projectileSource
+        projectile.location = (projectileSource + localAttackTarget.location) / 2.0
+        projectile.scaleX = obsToTarget.length.toDouble / 200.0
+        projectile.scaleY = 1.0
+        projectile.setRotation (obsToTarget.angle, Curve.IMMEDIATE)
+        commit(0.0, projectile)
+        projectile.setRotation ((-obsToTarget).angle, Curve.IMMEDIATE)
+        projectile.scaleY = 2.0
+        commit(0.2, projectile)
+        projectile.setRotation (obsToTarget.angle, Curve.IMMEDIATE)
+        commit(0.4, projectile)
+        projectile.setRotation ((-obsToTarget).angle, Curve.IMMEDIATE)
+        projectile.scaleY = 1.0
+        commit(0.6, projectile)
+        projectile.setRotation (obsToTarget.angle, Curve.IMMEDIATE)
+        commit(0.8, projectile)
+        projectile.setRotation ((-obsToTarget).angle, Curve.IMMEDIATE)
+        commit(0.99, projectile)
+        projectile.isVisible = false
+        commit(1.0, projectile)
+
+      }
+    }
+  }
+
+  private inner class BarracksEntities(owner: Player) {
+    val progressFillMask = entityManager.createRectangle()
+      .setHeight(8)!!
+
+    val barracksImage = entityManager.createSprite()
+      .setAnchor(0.5)
+      .setImage(if (owner.isSecondPlayer) "Caserne_Bleu" else "Caserne_Rouge")
+      .setZIndex(40)!!
+
+    val progressFill = entityManager.createSprite()
+      .setAnchor(0.5)
+      .setImage(if (owner.isSecondPlayer) "Caserne_Bleu_Jauge" else "Caserne_Rouge_Jauge")
+      .setZIndex(400)
+      .setMask(progressFillMask)!!
+
+    val creepToken = entityManager.createSprite()
+      .setAnchor(0.5)
+      .setImage(if (owner.isSecondPlayer) "Unite_Base_Bleu" else "Unite_Base_Rouge")
+      .setZIndex(41)!!
+
+    val creepSprite = entityManager.createSprite()
+      .setAnchor(0.5)
+      .setZIndex(42)!!
+
+    fun place(obstacle: Obstacle, progressFillMaxWidth: Int) {
+      progressFillMask.location = obstacle.location + Vector2(-0.51, 0.72) * obstacle.radius.toDouble()
+      progressFillMask.width = progressFillMaxWidth
+      barracksImage.location = obstacle.location
+      barracksImage.setBaseHeight(obstacle.radius * 2).setBaseWidth(obstacle.radius * 2)
+      progressFill.location = obstacle.location.plus(Vector2(0, obstacle.radius * 53/68))
+      progressFill.setBaseWidth(obstacle.radius * 2 * 70 / 138)
+        .setBaseHeight((obstacle.radius * 2 * 70 / 138 * 10.0/110.0).toInt())
+      creepToken.location = obstacle.location + Vector2(-0.1, -0.45) * obstacle.radius.toDouble()
+      creepToken.setBaseHeight((barracksImage.baseHeight * 0.32).toInt())
+        .setBaseWidth((barracksImage.baseWidth * 0.32).toInt())
+      creepSprite.location = creepToken.location
+      creepSprite.setBaseHeight(creepToken.baseHeight).setBaseWidth(creepToken.baseWidth)
+    }
+
+    val all get() = arrayOf<Entity<*>>(progressFillMask, barracksImage, progressFill, creepToken, creepSprite)
+  }
+
+  private inner class BarracksSprites(private val barracks: Barracks) : StructureView {
+    private val obstacle = barracks.obstacle
+
+    override fun tooltipLines(): List<String> {
+      val retVal = mutableListOf(
+        "BARRACKS (${barracks.creepType})"
+      )
+      return retVal
+    }
+
+    private val progressFillMaxWidth =(obstacle.radius * 1.05).toInt()
+
+    // reused entities move to the site while still hidden, rather than slide there when shown
+    private val entities = barracksPool.acquire(barracks.owner.side)
+      ?.also { it.place(obstacle, progressFillMaxWidth); commit(0.0, *it.all) }
+      ?: BarracksEntities(barracks.owner).also { it.place(obstacle, progressFillMaxWidth) }
+    private val progressFillMask = entities.progressFillMask
+    private val barracksImage = entities.barracksImage
+    private val progressFill = entities.progressFill
+    private val creepToken = entities.creepToken
+    private val creepSprite = entities.creepSprite
+    private var released = false
+
+    // what the last commit showed; shownWidth is -1 when hidden
+    private var shownTraining = false
+    private var shownWidth = -1
+
+    override fun update() {
+      val width = progressFillMaxWidth * barracks.progress / (barracks.progressMax-1)
+      if (shownWidth == -1) {
+        barracksImage.isVisible = true
+        creepToken.isVisible = true
+        creepSprite.isVisible = true
+        creepSprite.image = barracks.creepType.assetName
+        commit(0.5, barracksImage, creepToken, creepSprite)
+
+        progressFill.isVisible = barracks.isTraining
+        commit(0.0, progressFill, progressFillMask)
+      } else if (barracks.isTraining != shownTraining) {
+        progressFill.isVisible = barracks.isTraining
+        commit(0.0, progressFill)
+      }
+      if (width != shownWidth) {
+        progressFillMask.width = width
+        commit(1.0, progressFillMask)
+      }
+      shownTraining = barracks.isTraining
+      shownWidth = width
+    }
+
+    override fun hide() {
+      barracksImage.isVisible = false
+      creepToken.isVisible = false
+      creepSprite.isVisible = false
+      progressFill.isVisible = false
+      commit(0.51, barracksImage, creepToken, creepSprite, progressFill, progressFillMask)
+      shownWidth = -1
+      if (!released) barracksPool.release(barracks.owner.side, entities)
+      released = true
+    }
+  }
+
+  private inner class UnitEntities(owner: Player) {
+    val tokenCircle = entityManager.createSprite()
+      .setImage(if (owner.isSecondPlayer) "Unite_Base_Bleu" else "Unite_Base_Rouge")
+      .setAnchor(0.5)
+      .setZIndex(40)!!   // TODO: set to some kind of increasing ID
+
+    val characterSprite = entityManager.createSprite()
+      .setZIndex(41)
+      .setScale(1.2)
+      .setAnchor(0.5)!!
+
+    val tokenGroup = entityManager.createGroup(tokenCircle, characterSprite)!!
+
+    // archers' only
+    var projectile: Sprite? = null
+  }
+
+  /** [reused] are entities of a dead unit of the same kind, if any; new ones are made otherwise. */
+  private abstract inner class UnitSprites(private val unit: Unit, reused: UnitEntities?) : UnitView {
+    protected val isReused = reused != null
+    protected val entities = reused ?: UnitEntities(unit.owner)
+    protected val tokenCircle = entities.tokenCircle
+    protected val characterSprite = entities.characterSprite
+    protected val tokenGroup = entities.tokenGroup
+
+    override fun moved() {
+      tokenGroup.setLocation(unit.x, unit.y)
+    }
+
+    override fun healthChanged() {
+      tooltipModule.updateExtraTooltipText(tokenCircle, "Health: ${unit.health}")
+    }
+
+    override fun commitState(time: Double) {
+      commit(time, tokenCircle, characterSprite, tokenGroup)
+    }
+  }
+
+  private inner class QueenSprites(queen: Queen) : UnitSprites(queen, null) {
+    init {
+      characterSprite.image = "Unite_Reine"
+      tooltipModule.registerEntity(tokenGroup, queenTooltip)
+      tokenCircle.baseWidth = queen.radius*2
+      tokenCircle.baseHeight = queen.radius*2
+      characterSprite.baseWidth = queen.radius*2
+      characterSprite.baseHeight = queen.radius*2
+    }
+  }
+
+  private open inner class CreepSprites(private val creep: Creep, private val kind: Int = creepKind(creep))
+    : UnitSprites(creep, creepPool.acquire(kind)), CreepView {
+    private var released = false
+
+    init {
+      if (isReused) {
+        // faded out when the previous creep died; the rest is as any creep of this kind leaves it
+        characterSprite.alpha = 1.0
+      } else {
+        tokenCircle.baseWidth = creep.radius*2
+        tokenCircle.baseHeight = creep.radius*2
+        characterSprite.image = creep.creepType.assetName
+        characterSprite.baseWidth = creep.radius*2
+        characterSprite.baseHeight = creep.radius*2
+
+        tooltipModule.registerEntity(tokenGroup, creepTooltips.getValue(creep.creepType))
+      }
+    }
+
+    override fun healthChanged() {
+      super.healthChanged()
+      if (creep.health == 0) {
+        characterSprite.alpha = 0.0
+        tokenCircle.alpha = 0.0
+        if (!released) creepPool.release(kind, entities)
+        released = true
+      } else {
+        tokenCircle.alpha = 0.8 * creep.health / creep.maxHealth + 0.2
+      }
+    }
+
+    override fun finalizeFrame() { }
+    override fun attacked(target: FieldObject) { }
+  }
+
+  private inner class GiantSprites(private val giant: GiantCreep) : CreepSprites(giant) {
+    override fun attacked(target: FieldObject) {
+      val creepToTower = target.location - giant.location
+      characterSprite.location = creepToTower.resizedTo(giant.radius.toDouble())
+      commit(0.2, characterSprite)
+      characterSprite.location = Vector2(0,0)
+      commit(1.0, characterSprite)
+    }
+  }
+
+  private inner class KnightSprites(private val knight: KnightCreep) : CreepSprites(knight) {
+    private var lastLocation: Vector2? = null
+    private var attacksThisTurn: Boolean = false
+
+    override fun finalizeFrame() {
+      val last = lastLocation
+      val location = knight.location
+
+      if (last != null) {
+        val movementVector = when {
+          last.distanceTo(location) > 30 && !attacksThisTurn -> location - last
+          else -> knight.owner.enemyPlayer.queenUnit.location - location
+        }
+        characterSprite.rotation = movementVector.angle
+      }
+
+      lastLocation = location
+      attacksThisTurn = false
+    }
+
+    override fun attacked(target: FieldObject) {
+      attacksThisTurn = true
+      characterSprite.setAnchorX(0.5, Curve.IMMEDIATE)
+      commit(0.4, characterSprite)
+      characterSprite.anchorX = 0.2
+      commit(0.7, characterSprite)
+      characterSprite.anchorX = 0.5
+      commit(1.0, characterSprite)
+    }
+  }
+
+  private inner class ArcherSprites(private val archer: ArcherCreep) : CreepSprites(archer) {
+    private var lastLocation: Vector2? = null
+
+    val color = if (archer.owner.isSecondPlayer) "Bleu" else "Rouge"
+    private val projectile = entities.projectile ?: entityManager.createSprite()!!
+      .setZIndex(60)
+      .setImage("Fleche_$color")
+      .setVisible(false)
+      .setAnchorX(1.0).setAnchorY(0.5)
+      .also { entities.projectile = it }
+
+    override fun finalizeFrame() {
+      val target = archer.findTarget() ?: archer.owner.enemyPlayer.queenUnit
+      val location = archer.location
+
+      val last = lastLocation
+
+      if (last != null) {
+        val movementVector = when {
+          last.distanceTo(location) > 30 -> location - last
+          else -> target.location - location
+        }
+        characterSprite.rotation = Math.atan2(movementVector.y, movementVector.x)
+      }
+
+      lastLocation = location
+
+      val localAttackTarget = archer.attackTarget
+      if (localAttackTarget != null) {
+        characterSprite.anchorX = 0.8
+        commit(0.3, characterSprite)
+        characterSprite.anchorX = 0.5
+        commit(0.4, characterSprite)
+
+        projectile.setRotation((localAttackTarget.location - location).angle, Curve.IMMEDIATE)
+        projectile.isVisible = true
+        projectile.setX(location.x.toInt() + viewportX.first, Curve.NONE)
+        projectile.setY(location.y.toInt() + viewportY.first, Curve.NONE)
+        commit(0.4, projectile)
+        projectile.setX(localAttackTarget.location.x.toInt() + viewportX.first, Curve.EASE_IN_AND_OUT)
+        projectile.setY(localAttackTarget.location.y.toInt() + viewportY.first, Curve.EASE_IN_AND_OUT)
+        commit(0.99, projectile)
+        projectile.isVisible = false
+        commit(1.0, projectile)
+      }
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package com.codingame.game
+
+/**
+ * A moment of a match for a [ForwardModel]: its state, and the number of the coming turn, the first being 1 as in a
+ * [HeadlessMatch]. Its parity decides who builds when both queens build on the same site. [key] is the [StateKey] of
+ * the state, to tell positions apart without comparing snapshots.
+ */
+class ForwardState(val turn: Int, val snapshot: GameSnapshot, val key: Long)
+
+/**
+ * The rules of the game for bots that search ahead. [step] plays a turn with the very [GameEngine] the [Referee] runs,
+ * without a view, so from the same state it gives the same result as the real match. To play many turns in a row, as in
+ * a rollout, [load] a state once then [play] and [observe] as needed: no snapshot is taken in between.
+ *
+ * A model is tied to a map: [ofMatch] generates the one of a league and seed, [ofSites] takes the one a player was sent.
+ * Either way it starts at the first turn of a match on that map, with no structure built. Given a [cache], [step]
+ * reuses the result of any turn already played from the same position with the same actions.
+ *
+ * The model never touches a GameManager, but its players are still the [Player]s of the SDK's AbstractPlayer, so it
+ * needs the SDK core on the classpath. Actions the rules reject make their player lose silently: the model's host
+ * drops the warnings a [Referee] would log.
+ */
+class ForwardModel private constructor() : RestorableHost {
+  private val players = listOf(Player(), Player())
+  private val engine = GameEngine(players, this, null)
+  private var active = players
+  /** The state the engine is at, when it is one given out by [save] or taken by [load]. */
+  private var current: ForwardState? = null
+
+  var cache: TranspositionCache? = null
+
+  /** The [StateKey] of the current state. */
+  val stateKey get() = engine.stateKey
+
+  /** The number of the turn [play] plays next. */
+  var turn = 1
+    private set
+
+  /** Whether the match is over: a queen is dead or a player lost by playing wrong, or the last turn was played. */
+  val isOver get() = active.size < players.size || turn > GameEngine.MAX_TURNS
+
+  override val activePlayers: List<Player> get() = active
+  override fun deactivate(player: Player, reason: String) { active = active - player }
+  override fun reactivate(player: Player) { active = players.filter { it in active || it == player } }
+  override fun addToGameSummary(message: String) { }
+  override fun endGame() { }
+  override fun warn(message: String, error: Throwable?) { }
+
+  fun load(state: ForwardState) {
+    engine.restore(state.snapshot)
+    turn = state.turn
+    current = state
+  }
+
+  /** The current state; its snapshot is written over the one of [reuse] when it fits, see [GameEngine.snapshot]. */
+  fun save(reuse: ForwardState? = null) =
+    ForwardState(turn, engine.snapshot(reuse?.snapshot), engine.stateKey).also { current = it }
+
+  /** Plays the coming turn; an action the rules reject makes its player lose, as in a real match. */
+  fun play(actionsP0: TurnActions, actionsP1: TurnActions) {
+    current = null
+    engine.playTurnActions(turn) { player -> if (player === players[0]) actionsP0 else actionsP1 }
+    turn++
+  }
+
+  /**
+   * Plays a turn from [state]. The model is left at the result, unless it came from the [cache], so stepping on from
+   * the result needs no [load]. Without a cache, the snapshot of [reuse], a state the caller is done with, is recycled for
+   * the result; with one, every result is kept in it and [reuse] is ignored.
+   */
+  fun step(
+    state: ForwardState, actionsP0: TurnActions, actionsP1: TurnActions, reuse: ForwardState? = null
+  ): ForwardState {
+    val cache = cache
+    cache?.get(state, actionsP0, actionsP1)?.let { return it }
+    if (state !== current) load(state)
+    play(actionsP0, actionsP1)
+    if (cache == null) return save(reuse)
+    return save().also { cache.put(state, actionsP0, actionsP1, it) }
+  }
+
+  /** What the player at index [player] would be told now. */
+  fun observe(player: Int): Observation = engine.observe(players[player])
+
+  /** The score of the player at index [player]: its queen's health, or -1 if it lost by playing wrong. */
+  fun score(player: Int) = players[player].score
+
+  /**
+   * The state at [turn] of a match on this model's map, as told in [observation] to the player at index [me], with the
+   * guesses described in [GameEngine.snapshotOf]. Positions are whole after every turn, so given the hidden values this
+   * is the exact state; only at the first turn may a queen pushed off a site sit between pixels, but then the model's
+   * own starting state is the one to use. The model is left at that state, as after [load].
+   */
+  fun stateOf(observation: Observation, me: Int, turn: Int, enemyGold: Int): ForwardState {
+    val snapshot = engine.snapshotOf(observation, me, enemyGold)
+    load(ForwardState(turn, snapshot, 0))
+    return ForwardState(turn, snapshot, engine.stateKey).also { current = it }
+  }
+
+  companion object {
+    fun ofMatch(leagueLevel: Int, seed: Long) = ForwardModel().also { it.engine.init(leagueLevel, seed) }
+
+    /** A model of the map a player was told about, e.g. the sites of its first [Observation]. */
+    fun ofSites(leagueLevel: Int, sites: List<SiteObservation>) = ForwardModel().also { it.engine.init(leagueLevel, sites) }
+  }
+}
@@ -0,0 +1,13 @@
+package com.codingame.game
+
+/**
+ * Everything one match shares between its game objects. Nothing about a match lives in globals, so independent matches
+ * can run side by side, on as many threads as needed.
+ */
+class GameContext(val random: GameRandom, val view: GameView?) {
+  val leagues = Leagues()
+  val stateKey = StateKey()
+  var nextObstacleId = 0
+  /** Bumped whenever a site actually moves, which only happens while the map is being laid out. */
+  var obstacleMoves = 0
+}
@@ -0,0 +1,711 @@
+package com.codingame.game
+
+import com.codingame.game.Constants.CREEP_MOVE_SUBSTEPS
+import com.codingame.game.Constants.OBSTACLE_GOLD_RANGE
+import com.codingame.game.Constants.OBSTACLE_PAIRS
+import com.codingame.game.Constants.QUEEN_HP
+import com.codingame.game.Constants.QUEEN_HP_MULT
+import com.codingame.game.Constants.TOUCHING_DELTA
+import com.codingame.game.Constants.TOWER_HP_INCREMENT
+import com.codingame.game.Constants.TOWER_HP_INITIAL
+import com.codingame.game.Constants.TOWER_HP_MAXIMUM
+import com.codingame.game.Constants.WOOD_FIXED_INCOME
+import com.codingame.game.Constants.WORLD_HEIGHT
+import com.codingame.game.Constants.WORLD_WIDTH
+import com.codingame.gameengine.core.AbstractPlayer
+import java.util.*
+
+/**
+ * What the rules need from whoever runs the match: the CodinGame [Referee], or a [HeadlessMatch].
+ */
+interface GameHost {
+  val activePlayers: List<Player>
+  fun deactivate(player: Player, reason: String)
+  fun addToGameSummary(message: String)
+  fun endGame()
+  /** Logs a player's fatal error for whoever runs the match, with the exception behind it if any. */
+  fun warn(message: String, error: Throwable? = null)
+}
+
+/** A host that can also take a deactivated player back, as [GameEngine.restore] needs to go back in a match. */
+interface RestorableHost : GameHost {
+  fun reactivate(player: Player)
+}
+
+/**
+ * The rules of one match. Nothing here depends on the graphic entity module: game objects only reach the view through
+ * their [GameContext], and it is null for headless matches.
+ */
+class GameEngine(private val players: List<Player>, private val host: GameHost, private val view: GameView?) {
+  lateinit var context: GameContext
+    private set
+  var obstacles: List<Obstacle> = listOf()
+    private set
+  lateinit var obstacleIndex: ObstacleIndex
+    private set
+  /** Where to report phase timings; nothing is timed when null. */
+  var metrics: TurnMetrics? = null
+  /** The [StateKey] of the match as it stands between turns. */
+  val stateKey get() = context.stateKey.value
+  private val frame = WorldFrame(players)
+  private val commandTokens = CommandTokens()
+  private val trainedSites = BitSet()
+  private var trainIds = IntArray(8)
+  private var frameIsCurrent = false
+
+  //private fun allEntities(): List<FieldObject> = players.flatMap { it.allUnits() } + obstacles // Bug in collisions in favor to red queen against blue queen
+  private fun allEntities(): List<FieldObject> = players.flatMap { it.activeCreeps } + players.map { it.queenUnit } + obstacles
+
+  fun init(leagueLevel: Int, seed: Long?) = setUp(leagueLevel, GameRandom(seed ?: Random().nextLong())) { buildMap(context) }
+
+  /**
+   * Sets up a match on the map of [sites], e.g. as told to a player, instead of one generated from a seed. The sites
+   * must be all of them, in order; their gold and mine sizes only matter until a snapshot is restored.
+   */
+  fun init(leagueLevel: Int, sites: List<SiteObservation>) = setUp(leagueLevel, GameRandom(0)) {
+    sites.map { Obstacle(context, it.maxMineSize, it.gold, it.radius, Vector2(it.x, it.y)) }
+  }
+
+  private fun setUp(leagueLevel: Int, random: GameRandom, createObstacles: () -> List<Obstacle>) {
+    frameIsCurrent = false
+    context = GameContext(random, view)
+    val leagues = context.leagues
+    players.forEach { it.context = context }
+
+//    when (3) {
+    when (leagueLevel) {
+      1 -> {
+        leagues.mines = false; leagues.fixedIncome = WOOD_FIXED_INCOME; leagues.towers = false; leagues.giants = false
+        leagues.obstacles = OBSTACLE_PAIRS.sample(context.random)
+      }
+      2 -> {
+        leagues.mines = false; leagues.fixedIncome = WOOD_FIXED_INCOME
+        leagues.obstacles = OBSTACLE_PAIRS.sample(context.random)
+      }
+      3 -> { }
+      else -> {
+        leagues.queenHp = QUEEN_HP.sample(context.random) * QUEEN_HP_MULT
+      }
+    }
+
+    players[0].enemyPlayer = players[1]
+    players[1].enemyPlayer = players[0]
+    players[1].isSecondPlayer = true
+    players.forEach { it.health = leagues.queenHp }
+
+    obstacles = createObstacles()
+    obstacleIndex = ObstacleIndex(context, obstacles)
+
+    for ((activePlayer, invert) in host.activePlayers.zip(listOf(false, true))) {
+      val spawnDistance = 200
+      val corner = if (invert)
+        Vector2(WORLD_WIDTH - spawnDistance, WORLD_HEIGHT - spawnDistance)
+      else
+        Vector2(spawnDistance, spawnDistance)
+
+      activePlayer.queenUnit = Queen(activePlayer).also { it.location = corner }
+    }
+
+    fixCollisions(allEntities())
+    resetStateKey()
+
+    host.activePlayers.forEach { it.hud?.update() }
+  }
+
+  fun sendInitialState(player: Player, send: (String) -> kotlin.Unit) {
+    player.inputLine.add(obstacles.size).sendTo(send)
+    obstacles.forEach { player.printObstacleInit(it, send) }
+  }
+
+  /** What the players are told about the current turn, gathered once however many of them ask. */
+  fun worldFrame(): WorldFrame {
+    if (!frameIsCurrent) {
+      frame.capture(obstacles, obstacleIndex, host.activePlayers)
+      frameIsCurrent = true
+    }
+    return frame
+  }
+
+  fun sendGameState(player: Player, send: (String) -> kotlin.Unit) = metrics.timed(TurnPhase.SEND_GAME_STATE) {
+    worldFrame().sendTo(player, send)
+  }
+
+  /** Same as above, with the delta site protocol; [deltas] must always be used for the same player. */
+  fun sendGameState(player: Player, deltas: SiteDeltas, send: (String) -> kotlin.Unit) =
+    metrics.timed(TurnPhase.SEND_GAME_STATE) { worldFrame().sendTo(player, deltas, send) }
+
+  /** What [player] is told this turn, for in-process [Agent]s. */
+  fun observe(player: Player): Observation = metrics.timed(TurnPhase.SEND_GAME_STATE) {
+    worldFrame().observe(player, obstacles)
+  }
+
+  private fun createCreep(owner: Player, creepType: CreepType): Creep = when (creepType) {
+    CreepType.KNIGHT -> KnightCreep(owner, creepType)
+    CreepType.ARCHER -> ArcherCreep(owner, creepType)
+    CreepType.GIANT -> GiantCreep(owner, creepType, obstacles)
+  }
+
+  private fun spawnCreeps(barracks: Barracks) {
+    repeat(barracks.creepType.count) { iter ->
+      barracks.owner.activeCreeps += createCreep(barracks.owner, barracks.creepType).also {
+        val c = if (barracks.owner.isSecondPlayer) -1 else 1
+        it.moveTo(barracks.obstacle.x + c * iter, barracks.obstacle.y + c * iter)
+        //it.location = barracks.obstacle.location + Vector2(iter, iter) // Fix units start point outside barracks
+        it.finalizeFrame()
+        val enemyQueen = barracks.owner.enemyPlayer.queenUnit
+        it.moveTowards(enemyQueen.x, enemyQueen.y, 30.0)
+        it.finalizeFrame()
+        it.commitState(0.0)
+      }
+    }
+    fixCollisions(allEntities())
+  }
+
+  private fun kill(player: Player, reason: String) {
+    player.score = -1
+    deactivate(player, reason)
+  }
+
+  /** Has the host deactivate [player], keeping the [StateKey] in step. */
+  private fun deactivate(player: Player, reason: String) {
+    if (player !in host.activePlayers) return
+    host.deactivate(player, reason)
+    context.stateKey.replace(StateKey.PLAYER_ACTIVE, player.side, 1, 0)
+  }
+
+  /**
+   * Plays one turn once every active player has been sent its state.
+   * @param outputs the two lines written by a player; may throw [AbstractPlayer.TimeoutException]
+   */
+  fun playTurn(turn: Int, outputs: (Player) -> List<String>) = playTurn(turn, outputs, null)
+
+  /** Plays one turn of in-process players, whose [TurnActions] keep to the same rules as the lines they stand for. */
+  fun playTurnActions(turn: Int, actions: (Player) -> TurnActions) = playTurn(turn, null, actions)
+
+  private fun playTurn(turn: Int, outputs: ((Player) -> List<String>)?, actions: ((Player) -> TurnActions)?) {
+    frameIsCurrent = false
+    fun processPlayerActions() {
+      val obstaclesAttemptedToBuildUpon = mutableListOf<Obstacle>()
+      val scheduledBuildings = mutableListOf<Pair<Player, () -> CommandError?>>()
+      var rejectionDetail: Any? = null
+
+      fun reject(error: CommandError, detail: Any? = null): CommandError {
+        rejectionDetail = detail
+        return error
+      }
+
+      fun report(player: Player, error: CommandError) {
+        val message = error.message(rejectionDetail)
+        if (error.fatal) {
+          host.warn("WARNING: Terminating ${player.nicknameToken}, because of: $message")
+          kill(player, message)
+          host.addToGameSummary("${player.nicknameToken}: $message")
+        } else {
+          host.addToGameSummary("${player.nicknameToken}: [WARNING] $message")
+        }
+      }
+
+      // Leagues are checked here, so that both protocols name the same structure type in their warnings
+      fun build(player: Player, obs: Obstacle, struc: Structure?, order: QueenAction): CommandError? {
+        when (order) {
+          is QueenAction.BuildMine -> {
+            if (!context.leagues.mines) return reject(CommandError.BAD_STRUCTURE_TYPE, "MINE")
+            if (struc is Mine) {
+              struc.incomeRate++
+              if (struc.incomeRate > obs.maxMineSize) struc.incomeRate = obs.maxMineSize
+            } else {
+              obs.setMine(player)
+            }
+          }
+          is QueenAction.BuildTower -> {
+            if (!context.leagues.towers) return reject(CommandError.BAD_STRUCTURE_TYPE, "TOWER")
+            if (struc is Tower) {
+              struc.health += TOWER_HP_INCREMENT
+              if (struc.health > TOWER_HP_MAXIMUM) struc.health = TOWER_HP_MAXIMUM
+            } else {
+              obs.setTower(player, TOWER_HP_INITIAL)
+            }
+          }
+          is QueenAction.BuildBarracks -> {
+            if (order.creepType == CreepType.GIANT && !context.leagues.giants) {
+              return reject(CommandError.BAD_BARRACKS_TYPE, order.creepType)
+            }
+            obs.setBarracks(player, order.creepType)
+          }
+          else -> throw IllegalArgumentException("$order builds nothing")
+        }
+        return null
+      }
+
+      // The structure type of a BUILD line is only read when the build happens, as it always was
+      fun buildFromText(player: Player, obs: Obstacle, struc: Structure?, strucType: String): CommandError? {
+        val toks = strucType.split('-')
+        val order = when (toks[0]) {
+          "MINE" -> QueenAction.BuildMine(obs.obstacleId)
+          "TOWER" -> QueenAction.BuildTower(obs.obstacleId)
+          "BARRACKS" -> {
+            if (toks.size < 2) return reject(CommandError.MISSING_BARRACKS_TYPE)
+            val creepType = CreepType.values().firstOrNull { it.name == toks[1] }
+              ?: return reject(CommandError.BAD_BARRACKS_TYPE, toks[1])
+            QueenAction.BuildBarracks(obs.obstacleId, creepType)
+          }
+          else -> return reject(CommandError.BAD_STRUCTURE_TYPE, toks[0])
+        }
+        return build(player, obs, struc, order)
+      }
+
+      fun scheduleBuilding(player: Player, obs: Obstacle, construct: (Structure?) -> CommandError?): CommandError? {
+        val struc = obs.structure
+        if (struc?.owner == player.enemyPlayer) return reject(CommandError.BUILD_ON_ENEMY_SITE)
+        if (struc is Barracks && struc.owner == player && struc.isTraining) return reject(CommandError.REBUILD_WHILE_TRAINING)
+
+        obstaclesAttemptedToBuildUpon += obs
+        scheduledBuildings += player to { construct(struc) }
+        return null
+      }
+
+      fun buildOrApproach(player: Player, obs: Obstacle, construct: (Structure?) -> CommandError?): CommandError? {
+        val queen = player.queenUnit
+        val reach = queen.radius + obs.radius + TOUCHING_DELTA
+        if (obs.distanceSquaredTo(queen) < reach * reach) return scheduleBuilding(player, obs, construct)
+        queen.moveTowards(obs.x, obs.y)
+        return null
+      }
+
+      // All site ids are looked up before any barracks is checked
+      fun train(player: Player, ids: IntArray, count: Int): CommandError? {
+        for (i in 0 until count) {
+          if (obstacleIndex.byId(ids[i]) == null) return reject(CommandError.NO_TRAIN_SITE, ids[i])
+        }
+
+        trainedSites.clear()
+        var trainsTwice = false
+        var sum = 0
+        for (i in 0 until count) {
+          val obs = obstacleIndex.byId(ids[i])!!
+          val struc = obs.structure as? Barracks ?: return reject(CommandError.NOT_A_BARRACKS, obs.obstacleId)
+          if (struc.owner != player) return reject(CommandError.BARRACKS_NOT_OWNED, obs.obstacleId)
+          if (struc.isTraining) return reject(CommandError.BARRACKS_TRAINING, obs.obstacleId)
+          if (trainedSites[obs.obstacleId]) trainsTwice = true
+          else {
+            trainedSites.set(obs.obstacleId)
+            sum += struc.creepType.cost
+          }
+        }
+        if (trainsTwice) return reject(CommandError.TRAINING_TWICE)
+        if (sum > player.gold) return reject(CommandError.TRAINING_TOO_EXPENSIVE, sum)
+
+        player.gold -= sum
+        for (i in 0 until count) {
+          val barracks = obstacleIndex.byId(ids[i])!!.structure as Barracks
+          barracks.progress = 0
+          barracks.isTraining = true
+          barracks.onComplete = { spawnCreeps(barracks) }
+        }
+        return null
+      }
+
+      // Every site id is parsed before any is looked up
+      fun trainFromText(player: Player, line: String): CommandError? {
+        val toks = commandTokens.reset(line, false)
+        toks.next()
+        if (!toks.isToken("TRAIN")) return reject(CommandError.EXPECTED_TRAIN)
+        var count = 0
+        while (toks.next()) {
+          if (!toks.parseInt()) return reject(CommandError.BAD_TRAIN_SITE_ID, toks.text())
+          if (count == trainIds.size) trainIds = trainIds.copyOf(count * 2)
+          trainIds[count++] = toks.intValue
+        }
+        return train(player, trainIds, count)
+      }
+
+      fun trainActions(player: Player, sites: List<Int>): CommandError? {
+        if (sites.size > trainIds.size) trainIds = IntArray(sites.size)
+        sites.forEachIndexed { i, id -> trainIds[i] = id }
+        return train(player, trainIds, sites.size)
+      }
+
+      // A warning while scheduling a build takes precedence over extra tokens
+      fun commandFromText(player: Player, line: String): CommandError? {
+        val toks = commandTokens.reset(line, true)
+        toks.next()
+        val command = when {
+          toks.isToken("WAIT") -> "WAIT"
+          toks.isToken("MOVE") -> {
+            if (!toks.next() || !toks.parseInt()) return reject(CommandError.BAD_MOVE)
+            val x = toks.intValue
+            if (!toks.next() || !toks.parseInt()) return reject(CommandError.BAD_MOVE)
+            player.queenUnit.moveTowards(x.toDouble(), toks.intValue.toDouble())
+            "MOVE"
+          }
+          toks.isToken("BUILD") -> {
+            if (!toks.next() || !toks.parseInt()) return reject(CommandError.BAD_BUILD_SITE_ID)
+            val obs = obstacleIndex.byId(toks.intValue) ?: return reject(CommandError.NO_BUILD_SITE, toks.intValue)
+            if (!toks.next()) return reject(CommandError.MISSING_STRUCTURE_TYPE)
+            val strucType = toks.text()
+            buildOrApproach(player, obs) { struc -> buildFromText(player, obs, struc, strucType) }?.let { return it }
+            "BUILD"
+          }
+          else -> return reject(CommandError.UNKNOWN_COMMAND, toks.text())
+        }
+        return if (toks.hasNext()) reject(CommandError.TOO_MANY_TOKENS, command) else null
+      }
+
+      fun commandAction(player: Player, action: QueenAction): CommandError? {
+        val siteId = when (action) {
+          QueenAction.Wait -> return null
+          is QueenAction.Move -> {
+            player.queenUnit.moveTowards(action.x.toDouble(), action.y.toDouble())
+            return null
+          }
+          is QueenAction.BuildMine -> action.siteId
+          is QueenAction.BuildTower -> action.siteId
+          is QueenAction.BuildBarracks -> action.siteId
+        }
+        val obs = obstacleIndex.byId(siteId) ?: return reject(CommandError.NO_BUILD_SITE, siteId)
+        return buildOrApproach(player, obs) { struc -> build(player, obs, struc, action) }
+      }
+
+      for (player in host.activePlayers) {
+        try {
+          val typed = actions?.invoke(player)
+          val lines = if (typed == null) outputs!!(player) else null
+          val trainError = if (typed != null) trainActions(player, typed.trainAt) else trainFromText(player, lines!![1])
+          if (trainError != null) report(player, trainError)
+          if (trainError?.fatal != true) {
+            val commandError =
+              if (typed != null) commandAction(player, typed.queen) else commandFromText(player, lines!![0])
+            commandError?.let { report(player, it) }
+          }
+        } catch (e: AbstractPlayer.TimeoutException) {
+          host.warn("WARNING: Terminating ${player.nicknameToken}, because of: Timeout!", e)
+          kill(player, "Timeout!")
+          host.addToGameSummary("${player.nicknameToken} failed to provide ${player.expectedOutputLines} lines of output in time.")
+        } catch (e: Exception) {
+          host.warn("WARNING: Terminating ${player.nicknameToken}, because of: ${e.message}", e)
+          kill(player, "${e.message}")
+          host.addToGameSummary("${player.nicknameToken}: ${e.message}")
+        }
+      }
+
+      // If they're both building onto the same one, then actually build only one: depending on parity of the turn number
+      if (obstaclesAttemptedToBuildUpon.size == 2 && obstaclesAttemptedToBuildUpon[0] == obstaclesAttemptedToBuildUpon[1]) {
+        scheduledBuildings.removeAt(turn % 2)
+      }
+
+      // Execute builds that remain
+      scheduledBuildings.forEach { (player: Player, callback: () -> CommandError?) ->
+        callback.invoke()?.let { report(player, it) }
+      }
+    }
+
+    fun processCreeps() {
+      val allCreeps = host.activePlayers.flatMap { it.activeCreeps }.sortedBy { it.creepType }.toList()
+      repeat(CREEP_MOVE_SUBSTEPS) {
+        metrics.timed(TurnPhase.CREEP_MOVEMENT) { allCreeps.forEach { it.move(1.0 / CREEP_MOVE_SUBSTEPS) } }
+        metrics.timed(TurnPhase.CREEP_COLLISIONS) { fixCollisions(allEntities(), 1) }
+      }
+      metrics.timed(TurnPhase.CREEP_DAMAGE) {
+        allCreeps.forEach { it.dealDamage() }
+
+        // Tear down enemy mines
+        allCreeps.forEach { creep ->
+          val closestObstacle = obstacleIndex.closest(creep.x, creep.y)!!
+          val reach = closestObstacle.radius + creep.radius + TOUCHING_DELTA
+          if (closestObstacle.distanceSquaredTo(creep) >= reach * reach) return@forEach
+          val struc = closestObstacle.structure
+          if (struc is Mine && struc.owner != creep.owner) closestObstacle.structure = null
+        }
+
+        allCreeps.forEach { it.damage(1) }
+        allCreeps.forEach { it.finalizeFrame() }
+
+        // Queens tear down enemy structures (not TOWERs)
+        host.activePlayers.forEach {
+          val queen = it.queenUnit
+          val closestObstacle = obstacleIndex.closest(queen.x, queen.y)!!
+          val reach = closestObstacle.radius + queen.radius + TOUCHING_DELTA
+          if (closestObstacle.distanceSquaredTo(queen) >= reach * reach) return@forEach
+          val struc = closestObstacle.structure
+          if ((struc is Mine || struc is Barracks) && struc.owner != queen.owner) closestObstacle.structure = null
+        }
+      }
+    }
+
+    host.activePlayers.forEach { it.goldPerTurn = 0 }
+
+    metrics.timed(TurnPhase.PLAYER_ACTIONS) { processPlayerActions() }
+    processCreeps()
+
+    // Process structures
+    metrics.timed(TurnPhase.STRUCTURES) { obstacles.forEach { it.act() } }
+
+    context.leagues.fixedIncome?.also { income ->
+      host.activePlayers.forEach {
+        it.goldPerTurn = income
+        it.gold += income
+      }
+    }
+
+
+    // Remove dead creeps
+    metrics.timed(TurnPhase.DEAD_CREEPS) {
+      host.activePlayers.forEach { player ->
+        player.activeCreeps.filter { it.health == 0 }.forEach {
+          player.activeCreeps.remove(it)
+          it.unkey()
+          view?.animationEvent("death", 1.0, it.x, it.y)
+        }
+      }
+    }
+
+    metrics.timed(TurnPhase.END_OF_TURN) { endTurn() }
+  }
+
+  private fun endTurn() {
+
+    // Check end game
+    host.activePlayers.forEach { player ->
+      player.queenUnit.health = player.health
+      if (player.health == 0) deactivate(player, "Dead queen")
+      player.hud?.update()
+    }
+    if (host.activePlayers.size < 2) {
+      host.endGame()
+    }
+
+    // Snap entities to integer coordinates
+    allEntities().forEach { it.snapToIntegers() }
+    for (player in players) {
+      player.queenUnit.rekey()
+      player.activeCreeps.forEachIndexed { index, creep -> creep.rekey(index) }
+    }
+  }
+
+  /** Computes the [StateKey] from scratch: it must always be the one the game objects keep up to date. */
+  fun computeStateKey(): Long {
+    var key = 0L
+    val active = host.activePlayers
+    for (player in players) {
+      key += StateKey.part(StateKey.PLAYER_ACTIVE, player.side, if (player in active) 1 else 0) +
+        StateKey.part(StateKey.PLAYER_GOLD, player.side, player.gold.toLong()) +
+        StateKey.part(StateKey.PLAYER_HEALTH, player.side, player.health.toLong()) +
+        StateKey.unitPart(player.queenUnit)
+      player.activeCreeps.forEachIndexed { index, creep -> key += StateKey.unitPart(creep, index) }
+    }
+    for (obstacle in obstacles) {
+      key += StateKey.part(StateKey.SITE_GOLD, obstacle.obstacleId, obstacle.gold.toLong()) +
+        (obstacle.structure?.keyParts() ?: 0L)
+    }
+    return key
+  }
+
+  private fun resetStateKey() {
+    context.stateKey.reset(computeStateKey())
+    for (player in players) {
+      player.queenUnit.keyPart = StateKey.unitPart(player.queenUnit)
+      player.activeCreeps.forEachIndexed { index, creep -> creep.keyPart = StateKey.unitPart(creep, index) }
+    }
+  }
+
+  /**
+   * Copies the whole state of the match, to be [restore]d any number of times later. The copy is written over [reuse]
+   * when it has the right size, i.e. the same number of creeps, so a snapshot no longer needed can be recycled.
+   */
+  @JvmOverloads
+  fun snapshot(reuse: GameSnapshot? = null): GameSnapshot {
+    val active = host.activePlayers
+    val size = 1 + players.sumBy { PLAYER_FIELDS + it.activeCreeps.size * CREEP_FIELDS } +
+      obstacles.size * OBSTACLE_FIELDS
+    val snapshot = if (reuse != null && reuse.size == size) reuse else GameSnapshot(DoubleArray(size), players.size)
+    val data = snapshot.data
+    var i = 0
+    data[i++] = context.random.state.toDouble()
+
+    for (player in players) {
+      data[i++] = if (player in active) 1.0 else 0.0
+      data[i++] = player.health.toDouble()
+      data[i++] = player.score.toDouble()
+      data[i++] = player.gold.toDouble()
+      data[i++] = player.goldPerTurn.toDouble()
+      val queen = player.queenUnit
+      data[i++] = queen.x
+      data[i++] = queen.y
+      data[i++] = queen.health.toDouble()
+      data[i++] = player.activeCreeps.size.toDouble()
+      for (creep in player.activeCreeps) {
+        data[i++] = creep.creepType.ordinal.toDouble()
+        data[i++] = creep.x
+        data[i++] = creep.y
+        data[i++] = creep.health.toDouble()
+      }
+    }
+
+    for (obstacle in obstacles) {
+      data[i++] = obstacle.x
+      data[i++] = obstacle.y
+      data[i++] = obstacle.gold.toDouble()
+      data[i++] = obstacle.maxMineSize.toDouble()
+      val struc = obstacle.structure
+      data[i++] = when (struc) { null -> -1.0; is Mine -> 0.0; is Tower -> 1.0; else -> 2.0 }
+      data[i++] = struc?.let { players.indexOf(it.owner) }?.toDouble() ?: -1.0
+      if (snapshot === reuse) Arrays.fill(data, i, i + STRUCTURE_FIELDS, 0.0)
+      when (struc) {
+        is Mine -> { data[i] = struc.incomeRate.toDouble() }
+        is Tower -> { data[i] = struc.attackRadius.toDouble(); data[i + 1] = struc.health.toDouble() }
+        is Barracks -> {
+          data[i] = struc.creepType.ordinal.toDouble()
+          data[i + 1] = struc.progressMax.toDouble()
+          data[i + 2] = struc.progress.toDouble()
+          data[i + 3] = if (struc.isTraining) 1.0 else 0.0
+        }
+      }
+      i += STRUCTURE_FIELDS
+    }
+    return snapshot
+  }
+
+  /**
+   * The snapshot of the state [observation] tells the player at index [me], for a match on the same map. What it does
+   * not tell is guessed: the enemy's gold is [enemyGold], an out of sight site holds the middle of the starting gold
+   * range, and an enemy mine there has its starting income. Only a site seen with no gold left is empty, so that the
+   * enemy's mines out of sight keep mining; fill the observation in, e.g. with the gold last seen, to know better.
+   */
+  fun snapshotOf(observation: Observation, me: Int, enemyGold: Int): GameSnapshot {
+    fun ownerIndex(owner: Int) = when (owner) { -1 -> -1; 0 -> me; else -> 1 - me }
+    val data = DoubleArray(1 + players.size * PLAYER_FIELDS + (observation.units.size - players.size) * CREEP_FIELDS +
+      obstacles.size * OBSTACLE_FIELDS)
+    var i = 0
+    data[i++] = 0.0
+
+    for (p in players.indices) {
+      val friendly = p == me
+      val units = observation.units.filter { it.isFriendly == friendly }
+      val queen = units.first { it.creepType == null }
+      data[i++] = 1.0
+      data[i++] = queen.health.toDouble()
+      data[i++] = queen.health.toDouble()
+      data[i++] = (if (friendly) observation.gold else enemyGold).toDouble()
+      data[i++] = 0.0
+      data[i++] = queen.x.toDouble()
+      data[i++] = queen.y.toDouble()
+      data[i++] = queen.health.toDouble()
+      data[i++] = (units.size - 1).toDouble()
+      for (creep in units) {
+        val creepType = creep.creepType ?: continue
+        data[i++] = creepType.ordinal.toDouble()
+        data[i++] = creep.x.toDouble()
+        data[i++] = creep.y.toDouble()
+        data[i++] = creep.health.toDouble()
+      }
+    }
+
+    for (site in observation.sites) {
+      data[i++] = site.x.toDouble()
+      data[i++] = site.y.toDouble()
+      data[i++] = (if (site.gold < 0) UNSEEN_SITE_GOLD else site.gold).toDouble()
+      data[i++] = maxOf(site.maxMineSize, 0).toDouble()
+      data[i++] = site.structureType.toDouble()
+      data[i++] = ownerIndex(site.owner).toDouble()
+      when (site.structureType) {
+        0 -> { data[i] = maxOf(site.incomeRateOrHealthOrCooldown, 1).toDouble() }
+        1 -> {
+          data[i] = site.attackRadiusOrCreepType.toDouble()
+          data[i + 1] = site.incomeRateOrHealthOrCooldown.toDouble()
+        }
+        2 -> {
+          val creepType = CREEP_TYPES[site.attackRadiusOrCreepType]
+          data[i] = creepType.ordinal.toDouble()
+          data[i + 1] = creepType.buildTime.toDouble()
+          val turnsLeft = site.incomeRateOrHealthOrCooldown
+          data[i + 2] = if (turnsLeft > 0) (creepType.buildTime - turnsLeft).toDouble() else 0.0
+          data[i + 3] = if (turnsLeft > 0) 1.0 else 0.0
+        }
+      }
+      i += STRUCTURE_FIELDS
+    }
+    return GameSnapshot(data, players.size)
+  }
+
+  /**
+   * Puts the match back in the state of [snapshot], which must come from this engine. Game objects are reused when they
+   * still match, so restoring allocates little; only headless matches can be restored, since no view is kept in sync,
+   * and only with a [RestorableHost].
+   */
+  fun restore(snapshot: GameSnapshot) {
+    check(view == null) { "Snapshots can only be restored without a view" }
+    val host = checkNotNull(host as? RestorableHost) { "Snapshots can only be restored by a RestorableHost" }
+    frameIsCurrent = false
+    val data = snapshot.data
+    var i = 0
+    context.random.state = data[i++].toLong()
+
+    for (player in players) {
+      val wasActive = data[i++] == 1.0
+      if (wasActive && player !in host.activePlayers) host.reactivate(player)
+      else if (!wasActive && player in host.activePlayers) host.deactivate(player, "Restored")
+      player.health = data[i++].toInt()
+      player.score = data[i++].toInt()
+      player.gold = data[i++].toInt()
+      player.goldPerTurn = data[i++].toInt()
+      val queen = player.queenUnit
+      queen.moveTo(data[i++], data[i++])
+      queen.health = data[i++].toInt()
+
+      val creeps = player.activeCreeps
+      val count = data[i++].toInt()
+      for (k in 0 until count) {
+        val creepType = CREEP_TYPES[data[i++].toInt()]
+        val creep = if (k < creeps.size && creeps[k].creepType == creepType) creeps[k] else
+          createCreep(player, creepType).also { if (k < creeps.size) creeps[k] = it else creeps += it }
+        creep.moveTo(data[i++], data[i++])
+        creep.health = data[i++].toInt()
+      }
+      while (creeps.size > count) creeps.removeAt(creeps.size - 1)
+    }
+
+    for (obstacle in obstacles) {
+      obstacle.moveTo(data[i++], data[i++])
+      obstacle.gold = data[i++].toInt()
+      obstacle.maxMineSize = data[i++].toInt()
+      val type = data[i++].toInt()
+      val ownerIndex = data[i++].toInt()
+      val owner = if (ownerIndex >= 0) players[ownerIndex] else null
+      val struc = obstacle.structure
+      when (type) {
+        0 -> {
+          val mine = if (struc is Mine && struc.owner == owner) struc else Mine(obstacle, owner!!, 0).also { obstacle.structure = it }
+          mine.incomeRate = data[i].toInt()
+        }
+        1 -> {
+          val tower = if (struc is Tower && struc.owner == owner) struc else Tower(obstacle, owner!!, 0, 0).also { obstacle.structure = it }
+          tower.attackRadius = data[i].toInt()
+          tower.health = data[i + 1].toInt()
+        }
+        2 -> {
+          val creepType = CREEP_TYPES[data[i].toInt()]
+          val barracks = if (struc is Barracks && struc.owner == owner && struc.creepType == creepType) struc else
+            Barracks(obstacle, owner!!, creepType).also { obstacle.structure = it }
+          barracks.progressMax = data[i + 1].toInt()
+          barracks.progress = data[i + 2].toInt()
+          barracks.isTraining = data[i + 3] == 1.0
+          if (barracks.isTraining) barracks.onComplete = { spawnCreeps(barracks) }
+        }
+        else -> if (struc != null) obstacle.structure = null
+      }
+      i += STRUCTURE_FIELDS
+    }
+    resetStateKey()
+  }
+
+  companion object {
+    const val MAX_TURNS = 200
+
+    private val CREEP_TYPES = CreepType.values()
+    private val UNSEEN_SITE_GOLD = (OBSTACLE_GOLD_RANGE.first + OBSTACLE_GOLD_RANGE.last) / 2
+    internal const val PLAYER_FIELDS = 9
+    internal const val CREEP_FIELDS = 4
+    internal const val STRUCTURE_FIELDS = 4
+    internal const val OBSTACLE_FIELDS = 6 + STRUCTURE_FIELDS
+  }
+}
@@ -0,0 +1,29 @@
+package com.codingame.game
+
+import java.util.*
+
+/**
+ * Draws exactly the same numbers as [java.util.Random] for the same seed, but its state can be read and written back,
+ * so that snapshots can carry it.
+ */
+class GameRandom(seed: Long) : Random(seed) {
+  var state = scramble(seed)
+
+  override fun setSeed(seed: Long) {
+    // Also called by the superclass constructor, before the initializer above has run
+    state = scramble(seed)
+  }
+
+  override fun next(bits: Int): Int {
+    state = (state * MULTIPLIER + ADDEND) and MASK
+    return (state ushr (48 - bits)).toInt()
+  }
+
+  companion object {
+    private const val MULTIPLIER = 0x5DEECE66DL
+    private const val ADDEND = 0xBL
+    private const val MASK = (1L shl 48) - 1
+
+    private fun scramble(seed: Long) = (seed xor MULTIPLIER) and MASK
+  }
+}
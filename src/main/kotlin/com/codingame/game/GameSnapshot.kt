@@ -0,0 +1,75 @@
+package com.codingame.game
+
+import com.codingame.game.GameEngine.Companion.CREEP_FIELDS
+import com.codingame.game.GameEngine.Companion.PLAYER_FIELDS
+import com.codingame.game.GameEngine.Companion.OBSTACLE_FIELDS
+
+/**
+ * Everything that changes during a match, flattened into one array: the random generator state, then for each player
+ * its activity, health, gold, score, queen and creeps, then each obstacle with its structure. Taken and restored by
+ * [GameEngine].
+ */
+class GameSnapshot internal constructor(internal val data: DoubleArray, val playerCount: Int) {
+  val size get() = data.size
+
+  operator fun get(field: Int) = data[field]
+
+  /** FNV-1a over the bits of every field, in order; the same on any JVM, so hashes can be compared across runs. */
+  fun hash(): Long {
+    var hash = FNV_OFFSET
+    for (value in data) {
+      var bits = java.lang.Double.doubleToLongBits(value)
+      repeat(8) {
+        hash = (hash xor (bits and 0xff)) * FNV_PRIME
+        bits = bits ushr 8
+      }
+    }
+    return hash
+  }
+
+  /** @return the first field that differs in [other], [size] if one is a prefix of the other, -1 if they are equal */
+  fun firstDifference(other: GameSnapshot): Int {
+    val common = Math.min(size, other.size)
+    for (i in 0 until common) {
+      if (java.lang.Double.doubleToLongBits(data[i]) != java.lang.Double.doubleToLongBits(other.data[i])) return i
+    }
+    return if (size == other.size) -1 else common
+  }
+
+  /** What the field at [index] holds, e.g. "player 1 creep 3 health" or "site 12 tower radius". */
+  fun fieldName(index: Int): String {
+    if (index >= size) return "end of state"
+    if (index == 0) return "random state"
+    var i = 1
+    for (p in 0 until playerCount) {
+      if (index < i + PLAYER_FIELDS) return "player $p ${PLAYER_FIELD_NAMES[index - i]}"
+      val creeps = data[i + PLAYER_FIELDS - 1].toInt()
+      i += PLAYER_FIELDS
+      if (index < i + creeps * CREEP_FIELDS) {
+        return "player $p creep ${(index - i) / CREEP_FIELDS} ${CREEP_FIELD_NAMES[(index - i) % CREEP_FIELDS]}"
+      }
+      i += creeps * CREEP_FIELDS
+    }
+    val site = (index - i) / OBSTACLE_FIELDS
+    val field = (index - i) % OBSTACLE_FIELDS
+    if (field < SITE_FIELD_NAMES.size) return "site $site ${SITE_FIELD_NAMES[field]}"
+    val structureType = data[i + site * OBSTACLE_FIELDS + STRUCTURE_TYPE_FIELD].toInt()
+    val name = STRUCTURE_FIELD_NAMES.getOrNull(structureType)?.getOrNull(field - SITE_FIELD_NAMES.size)
+    return "site $site ${name ?: "unused field"}"
+  }
+
+  companion object {
+    private const val FNV_OFFSET = -0x340d631b7bdddcdbL
+    private const val FNV_PRIME = 0x100000001b3L
+    private const val STRUCTURE_TYPE_FIELD = 4
+
+    private val PLAYER_FIELD_NAMES = listOf(
+      "active", "health", "score", "gold", "gold per turn", "queen x", "queen y", "queen health", "creep count")
+    private val CREEP_FIELD_NAMES = listOf("type", "x", "y", "health")
+    private val SITE_FIELD_NAMES = listOf("x", "y", "gold", "max mine size", "structure", "owner")
+    private val STRUCTURE_FIELD_NAMES = listOf(
+      listOf("mine income rate"),
+      listOf("tower radius", "tower health"),
+      listOf("barracks creep type", "barracks build time", "barracks progress", "barracks training"))
+  }
+}
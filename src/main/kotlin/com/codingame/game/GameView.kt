@@ -0,0 +1,42 @@
+package com.codingame.game
+
+/**
+ * Everything the simulation shows. Game objects ask their [GameContext.view] for their view when they are created and
+ * only notify it afterwards; when no view is attached (headless matches) they keep a null view and skip all of it.
+ */
+interface GameView {
+  fun obstacleView(obstacle: Obstacle): ObstacleView
+  fun structureView(structure: Structure): StructureView
+  fun queenView(queen: Queen): UnitView
+  fun creepView(creep: Creep): CreepView
+  fun playerView(player: Player): PlayerView
+  fun animationEvent(id: String, t: Double, x: Double, y: Double)
+}
+
+interface ObstacleView {
+  fun moved()
+  fun resized()
+  fun structureChanged(previous: Structure?)
+  fun update()
+}
+
+interface StructureView {
+  fun update()
+  fun hide()
+  fun tooltipLines(): List<String>
+}
+
+interface UnitView {
+  fun moved()
+  fun healthChanged()
+  fun commitState(time: Double)
+}
+
+interface CreepView : UnitView {
+  fun finalizeFrame()
+  fun attacked(target: FieldObject)
+}
+
+interface PlayerView {
+  fun update()
+}
@@ -0,0 +1,99 @@
+package com.codingame.game
+
+import com.codingame.gameengine.core.AbstractPlayer
+
+/**
+ * Runs a whole match with no view attached: same rules as the [Referee], but no sprites, tooltips or anim events.
+ * Text agents get the same input lines a real player would; answering with fewer than two lines counts as a timeout.
+ * Typed [Agent]s get the same information as an [Observation].
+ */
+class HeadlessMatch(private val leagueLevel: Int, private val seed: Long) : RestorableHost {
+  val players = listOf(Player(), Player())
+  val summary = mutableListOf<String>()
+  var turnsPlayed = 0
+    private set
+  /** Receives the engine's phase timings plus the time spent in the agent; e.g. a [PhaseHistograms]. */
+  var metrics: TurnMetrics? = null
+  /** When positive, text agents get the delta site protocol of [SiteDeltas], with every site resent this often. */
+  var siteDeltaResyncTurns = 0
+  /** What the agents answered, enough to [replay] the match. */
+  val inputLog = InputLog(leagueLevel, seed, players.size)
+  /** Gets the state of the match after every turn, when set. */
+  var stateTrace: StateTrace? = null
+  private var ended = false
+  private val inactive = mutableSetOf<Player>()
+
+  override val activePlayers: List<Player> get() = players.filter { it !in inactive }
+  override fun deactivate(player: Player, reason: String) { inactive += player }
+  override fun reactivate(player: Player) { inactive -= player }
+  override fun addToGameSummary(message: String) { summary += message }
+  override fun endGame() { ended = true }
+  override fun warn(message: String, error: Throwable?) {
+    System.err.println(message)
+    error?.printStackTrace()
+  }
+
+  /** @return the final scores, indexed like [players] */
+  fun play(agent: (Player, List<String>) -> List<String>): List<Int> {
+    val engine = start()
+    val inputs = players.map { mutableListOf<String>() }
+    activePlayers.forEach { player -> engine.sendInitialState(player) { inputs[players.indexOf(player)] += it } }
+    val deltas = players.map { if (siteDeltaResyncTurns > 0) SiteDeltas(siteDeltaResyncTurns) else null }
+
+    return playTurns(engine) { player ->
+      val lines = inputs[players.indexOf(player)]
+      val playerDeltas = deltas[players.indexOf(player)]
+      if (playerDeltas == null) engine.sendGameState(player) { lines += it }
+      else engine.sendGameState(player, playerDeltas) { lines += it }
+      metrics.timed(TurnPhase.AGENT) { agent(player, lines.toList()) }.also { lines.clear() }
+    }
+  }
+
+  /** Plays with in-process [agents], indexed like [players]. @return the final scores, indexed like [players] */
+  fun play(agents: List<Agent>): List<Int> {
+    val engine = start()
+    val actions = mutableMapOf<Player, TurnActions>()
+    return runTurns(engine) { turn ->
+      for (player in activePlayers) {
+        val observation = engine.observe(player)
+        val turnActions = metrics.timed(TurnPhase.AGENT) { agents[players.indexOf(player)].act(observation) }
+        actions[player] = turnActions
+        inputLog.record(turn, players.indexOf(player), turnActions.lines())
+      }
+      engine.playTurnActions(turn) { player -> actions[player]!! }
+    }
+  }
+
+  /** Plays the match again from a log of this league and seed. @return the final scores, indexed like [players] */
+  fun replay(log: InputLog): List<Int> {
+    require(log.leagueLevel == leagueLevel && log.seed == seed) { "The log is for another match" }
+    return playTurns(start()) { player -> log.answer(turnsPlayed + 1, players.indexOf(player)) }
+  }
+
+  private fun start() = GameEngine(players, this, null).also {
+    it.metrics = metrics
+    it.init(leagueLevel, seed)
+    stateTrace?.record(0, it.snapshot())
+  }
+
+  private fun playTurns(engine: GameEngine, answer: (Player) -> List<String>?): List<Int> {
+    val outputs = mutableMapOf<Player, List<String>?>()
+    return runTurns(engine) { turn ->
+      for (player in activePlayers) {
+        outputs[player] = answer(player)?.takeIf { it.size >= player.expectedOutputLines }
+        inputLog.record(turn, players.indexOf(player), outputs[player])
+      }
+      engine.playTurn(turn) { player -> outputs[player] ?: throw AbstractPlayer.TimeoutException() }
+    }
+  }
+
+  private fun runTurns(engine: GameEngine, playTurn: (Int) -> kotlin.Unit): List<Int> {
+    for (turn in 1..GameEngine.MAX_TURNS) {
+      playTurn(turn)
+      stateTrace?.record(turn, engine.snapshot())
+      turnsPlayed = turn
+      if (ended) break
+    }
+    return players.map { it.score }
+  }
+}
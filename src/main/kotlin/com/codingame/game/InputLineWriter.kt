@@ -0,0 +1,23 @@
+package com.codingame.game
+
+/**
+ * Builds one input line at a time out of integers, in a buffer that is reused from line to line, so encoding the game
+ * state needs neither boxed token lists nor joinToString. Each player has its own, see [Player.inputLine].
+ */
+class InputLineWriter {
+  private val line = StringBuilder(64)
+
+  fun add(value: Int): InputLineWriter {
+    if (line.isNotEmpty()) line.append(' ')
+    line.append(value)
+    return this
+  }
+
+  fun add(a: Int, b: Int, c: Int, d: Int) = add(a).add(b).add(c).add(d)
+
+  /** Sends the line built so far and starts a new one. */
+  fun sendTo(send: (String) -> kotlin.Unit) {
+    send(line.toString())
+    line.setLength(0)
+  }
+}
@@ -0,0 +1,71 @@
+package com.codingame.game
+
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+
+/**
+ * Everything needed to play a match again: its league, its seed and what each player answered on each turn. Given the
+ * same answers the engine plays the same match, view included, so this is all a replay has to keep.
+ */
+class InputLog(val leagueLevel: Int, val seed: Long, val playerCount: Int = 2) {
+  private val answers = mutableListOf<List<String>?>()
+
+  /** One more than the last turn recorded; turns are numbered as given to [GameEngine.playTurn]. */
+  val turns get() = answers.size / playerCount
+
+  /** [lines] is null when the player was not asked or did not answer in time. */
+  fun record(turn: Int, playerIndex: Int, lines: List<String>?) {
+    while (answers.size < (turn + 1) * playerCount) answers += null as List<String>?
+    answers[turn * playerCount + playerIndex] = lines
+  }
+
+  fun answer(turn: Int, playerIndex: Int): List<String>? = answers.getOrNull(turn * playerCount + playerIndex)
+
+  /** Writes the log gzipped: a header, then per turn and player a line count (-1 for no answer) and the lines. */
+  fun writeTo(output: OutputStream) {
+    val gzip = GZIPOutputStream(output)
+    DataOutputStream(gzip).run {
+      writeInt(MAGIC)
+      writeInt(leagueLevel)
+      writeLong(seed)
+      writeInt(playerCount)
+      writeInt(turns)
+      answers.forEach { lines ->
+        writeInt(lines?.size ?: -1)
+        lines?.forEach {
+          val bytes = it.toByteArray(Charsets.UTF_8)
+          writeInt(bytes.size)
+          write(bytes)
+        }
+      }
+      flush()
+    }
+    gzip.finish()
+  }
+
+  companion object {
+    private const val MAGIC = 0x43524c31  // "CRL1"
+
+    fun readFrom(input: InputStream): InputLog {
+      val data = DataInputStream(GZIPInputStream(input))
+      if (data.readInt() != MAGIC) throw IOException("Not an input log")
+      val log = InputLog(data.readInt(), data.readLong(), data.readInt())
+      for (turn in 0 until data.readInt()) {
+        for (playerIndex in 0 until log.playerCount) {
+          val count = data.readInt()
+          log.record(turn, playerIndex, if (count < 0) null else List(count) {
+            val bytes = ByteArray(data.readInt())
+            data.readFully(bytes)
+            String(bytes, Charsets.UTF_8)
+          })
+        }
+      }
+      return log
+    }
+  }
+}
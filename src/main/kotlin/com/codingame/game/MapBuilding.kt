@@ -2,33 +2,21 @@ package com.codingame.game
 
 import com.codingame.game.Constants.WORLD_HEIGHT
 import com.codingame.game.Constants.WORLD_WIDTH
+import java.util.*
 
-val background = theEntityManager.createSprite()
-  .setImage("Background.jpg")
-  .setBaseWidth(Constants.WORLD_WIDTH).setBaseHeight(Constants.WORLD_HEIGHT)
-  .setX(viewportX.first).setY(viewportY.first)
-  .setZIndex(0)
+fun IntRange.sample(random: Random): Int = random.nextInt(last-first+1) + first
 
-val hudBackground = theEntityManager.createSprite()
-  .setImage("Hud.png")
-  .setBaseWidth(1920)
-  .setX(0).setY(1080)
-  .setAnchorY(1.0)
-  .setZIndex(4000)
-
-fun IntRange.sample(): Int = theRandom.nextInt(last-first+1) + first
-
-fun buildMap(): List<Obstacle> {
+fun buildMap(context: GameContext): List<Obstacle> {
   fun buildObstacles(): List<Obstacle>? {
-    nextObstacleId = 0
+    context.nextObstacleId = 0
 
-    val obstaclePairs = (1..Leagues.obstacles).map {
-      val rate = Constants.OBSTACLE_MINE_BASESIZE_RANGE.sample()
-      val gold = Constants.OBSTACLE_GOLD_RANGE.sample()
-      val radius = Constants.OBSTACLE_RADIUS_RANGE.sample()
-      val l1 = Vector2.random(theRandom, WORLD_WIDTH, WORLD_HEIGHT)
+    val obstaclePairs = (1..context.leagues.obstacles).map {
+      val rate = Constants.OBSTACLE_MINE_BASESIZE_RANGE.sample(context.random)
+      val gold = Constants.OBSTACLE_GOLD_RANGE.sample(context.random)
+      val radius = Constants.OBSTACLE_RADIUS_RANGE.sample(context.random)
+      val l1 = Vector2.random(context.random, WORLD_WIDTH, WORLD_HEIGHT)
       val l2 = Vector2(WORLD_WIDTH, WORLD_HEIGHT) - l1
-      Pair(Obstacle(rate, gold, radius, l1), Obstacle(rate, gold, radius, l2))
+      Pair(Obstacle(context, rate, gold, radius, l1), Obstacle(context, rate, gold, radius, l2))
     }
     val obstacles = obstaclePairs.flatMap { listOf(it.first, it.second) }
 
@@ -56,43 +44,74 @@ fun buildMap(): List<Obstacle> {
     if (it.location.distanceTo(mapCenter) < Constants.OBSTACLE_GOLD_INCREASE_DISTANCE_2) { it.maxMineSize++; it.gold += Constants.OBSTACLE_GOLD_INCREASE }
     it.updateEntities()
   }
-  PlayerHUD.obstacles = obstacles
   return obstacles
 }
 
 fun fixCollisions(entities: List<FieldObject>, maxIterations: Int = 999) {
-  repeat(maxIterations) { if (!collisionCheck(entities)) return }
+  val grid = CollisionGrid(entities, 0.0)
+  repeat(maxIterations) { if (!collisionCheck(entities, 0.0, grid)) return }
 }
 
 /**
+ * Visits every entity in list order, clamps it inside the world and pushes apart every other entity it overlaps, also in
+ * list order. Only the candidates returned by the [grid] broadphase are tested; since non-overlapping pairs are left
+ * untouched, the outcome is the same as testing every pair.
  * @return false if everything is ok; true if there was a correction
  */
-fun collisionCheck(entities: List<FieldObject>, acceptableGap: Double = 0.0): Boolean {
-  return entities.flatMap { u1 ->
+fun collisionCheck(entities: List<FieldObject>, acceptableGap: Double = 0.0,
+                   grid: CollisionGrid = CollisionGrid(entities, acceptableGap)): Boolean {
+  var corrected = false
+  entities.forEachIndexed { i, u1 ->
     val rad = u1.radius.toDouble()
     val clampDist = if (u1.mass == 0) Constants.OBSTACLE_GAP + rad else rad
-    u1.location = u1.location.clampWithin(clampDist, WORLD_WIDTH - clampDist, clampDist, WORLD_HEIGHT - clampDist)
+    u1.clampWithin(clampDist, WORLD_WIDTH - clampDist, clampDist, WORLD_HEIGHT - clampDist)
+    grid.relocate(i)
 
-    (entities-u1).map { u2 ->
-      val overlap = u1.radius + u2.radius + acceptableGap - u1.location.distanceTo(u2.location).toDouble  // TODO: Fix this?
-      if (overlap <= 1e-6) {
-        false
-      }
-      else {
-        val (d1, d2) = when {
-          u1.mass == 0 && u2.mass == 0 -> Pair(0.5, 0.5)
-          u1.mass == 0 -> Pair(0.0, 1.0)
-          u2.mass == 0 -> Pair(1.0, 0.0)
-          else -> Pair(u2.mass.toDouble() / (u1.mass + u2.mass), u1.mass.toDouble() / (u1.mass + u2.mass))
+    // Each correction moves u1, so the candidates past the last visited index are collected again
+    var last = -1
+    do {
+      var moved = false
+      val count = grid.collectCandidates(i, last)
+      for (k in 0 until count) {
+        last = grid.candidate(k)
+        if (separate(u1, entities[last], acceptableGap)) {
+          grid.relocate(i)
+          grid.relocate(last)
+          corrected = true
+          moved = true
+          break
         }
+      }
+    } while (moved)
+  }
+  return corrected
+}
 
-        val u1tou2 = u2.location - u1.location
-        val gap = if (u1.mass == 0 && u2.mass == 0) 20.0 else 1.0
+/**
+ * @return true if [u1] and [u2] overlapped and were pushed apart
+ */
+private fun separate(u1: FieldObject, u2: FieldObject, acceptableGap: Double): Boolean {
+  val overlap = u1.radius + u2.radius + acceptableGap - u1.distanceTo(u2)  // TODO: Fix this?
+  if (overlap <= 1e-6) return false
 
-        u1.location -= u1tou2.resizedTo(d1 * overlap + if (u1.mass == 0 && u2.mass > 0) 0.0 else gap)
-        u2.location += u1tou2.resizedTo(d2 * overlap + if (u2.mass == 0 && u1.mass > 0) 0.0 else gap)
-        true
-      }
-    }
-  }.toList().any { it }
+  val (d1, d2) = when {
+    u1.mass == 0 && u2.mass == 0 -> Pair(0.5, 0.5)
+    u1.mass == 0 -> Pair(0.0, 1.0)
+    u2.mass == 0 -> Pair(1.0, 0.0)
+    else -> Pair(u2.mass.toDouble() / (u1.mass + u2.mass), u1.mass.toDouble() / (u1.mass + u2.mass))
+  }
+
+  // Unit vector from u1 to u2, normalized the same way as Vector2.normalized
+  var dx = u2.x - u1.x
+  var dy = u2.y - u1.y
+  val lengthSquared = dx * dx + dy * dy
+  if (lengthSquared < 1e-6 * 1e-6) { dx = 1.0; dy = 0.0 }
+  else { val length = Math.sqrt(lengthSquared); dx /= length; dy /= length }
+  val gap = if (u1.mass == 0 && u2.mass == 0) 20.0 else 1.0
+
+  val push1 = d1 * overlap + if (u1.mass == 0 && u2.mass > 0) 0.0 else gap
+  val push2 = d2 * overlap + if (u2.mass == 0 && u1.mass > 0) 0.0 else gap
+  u1.moveTo(u1.x - dx * push1, u1.y - dy * push1)
+  u2.moveTo(u2.x + dx * push2, u2.y + dy * push2)
+  return true
 }
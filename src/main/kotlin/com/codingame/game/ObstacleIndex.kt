@@ -0,0 +1,124 @@
+package com.codingame.game
+
+import com.codingame.game.Constants.QUEEN_RADIUS
+import com.codingame.game.Constants.TOUCHING_DELTA
+import com.codingame.game.Constants.WORLD_HEIGHT
+import com.codingame.game.Constants.WORLD_WIDTH
+
+/**
+ * Lookups over the sites of a match, which do not move once the map is built: by id, closest site to a point, and the
+ * site a queen touches. Answers exactly like scanning the whole list, ties going to the earliest site.
+ *
+ * The world is cut into cells, and each cell keeps the few sites that can answer a query from inside it. Everything is
+ * rebuilt if a site ever moves (see [GameContext.obstacleMoves]); points outside the world fall back to a scan.
+ */
+class ObstacleIndex(private val context: GameContext, private val obstacles: List<Obstacle>) {
+  private val cols = (WORLD_WIDTH + CELL_SIZE - 1) / CELL_SIZE
+  private val rows = (WORLD_HEIGHT + CELL_SIZE - 1) / CELL_SIZE
+  private val positionById = IntArray((obstacles.map { it.obstacleId }.max() ?: -1) + 1) { -1 }
+    .also { array -> obstacles.forEachIndexed { i, it -> array[it.obstacleId] = i } }
+
+  private val closestStart = IntArray(cols * rows + 1)
+  private var closestItems = IntArray(0)
+  private val touchStart = IntArray(cols * rows + 1)
+  private var touchItems = IntArray(0)
+  private var builtMoves = -1
+
+  /** Centre to centre distances between sites, indexed like the site list. */
+  var distances = DoubleArray(0)
+    private set
+
+  fun byId(obstacleId: Int): Obstacle? = positionById.getOrNull(obstacleId)?.let { obstacles.getOrNull(it) }
+
+  fun distance(a: Obstacle, b: Obstacle): Double {
+    ensureBuilt()
+    return distances[positionById[a.obstacleId] * obstacles.size + positionById[b.obstacleId]]
+  }
+
+  /** Same as `obstacles.minBy { it.distanceSquaredTo(x, y) }`. */
+  fun closest(x: Double, y: Double): Obstacle? {
+    val cell = cellOf(x, y)
+    if (cell < 0) return obstacles.minBy { it.distanceSquaredTo(x, y) }
+    var best: Obstacle? = null
+    var bestDistanceSquared = Double.POSITIVE_INFINITY
+    for (k in closestStart[cell] until closestStart[cell + 1]) {
+      val obstacle = obstacles[closestItems[k]]
+      val d = obstacle.distanceSquaredTo(x, y)
+      if (d < bestDistanceSquared) {
+        best = obstacle
+        bestDistanceSquared = d
+      }
+    }
+    return best
+  }
+
+  /** The only site a queen at ([x], [y]) touches, or null if it touches none or several. */
+  fun touchedByQueen(x: Double, y: Double): Obstacle? {
+    fun touches(obstacle: Obstacle): Boolean {
+      val reach = obstacle.radius + QUEEN_RADIUS + TOUCHING_DELTA
+      return obstacle.distanceSquaredTo(x, y) < reach * reach
+    }
+    val cell = cellOf(x, y)
+    if (cell < 0) return obstacles.singleOrNull { touches(it) }
+    var touched: Obstacle? = null
+    for (k in touchStart[cell] until touchStart[cell + 1]) {
+      val obstacle = obstacles[touchItems[k]]
+      if (!touches(obstacle)) continue
+      if (touched != null) return null
+      touched = obstacle
+    }
+    return touched
+  }
+
+  private fun cellOf(x: Double, y: Double): Int {
+    ensureBuilt()
+    if (!(x >= 0 && y >= 0 && x < cols * CELL_SIZE && y < rows * CELL_SIZE)) return -1
+    return (y / CELL_SIZE).toInt() * cols + (x / CELL_SIZE).toInt()
+  }
+
+  private fun ensureBuilt() {
+    if (builtMoves == context.obstacleMoves) return
+    builtMoves = context.obstacleMoves
+
+    val n = obstacles.size
+    distances = DoubleArray(n * n) { obstacles[it / n].distanceTo(obstacles[it % n]) }
+
+    val closest = mutableListOf<Int>()
+    val touch = mutableListOf<Int>()
+    val minDistances = DoubleArray(n)
+    for (cell in 0 until cols * rows) {
+      val x0 = (cell % cols).toDouble() * CELL_SIZE
+      val y0 = (cell / cols).toDouble() * CELL_SIZE
+      val x1 = x0 + CELL_SIZE
+      val y1 = y0 + CELL_SIZE
+
+      // A site can only be the closest to some point of the cell if it is nearer than the furthest corner of every other
+      var bound = Double.POSITIVE_INFINITY
+      for (i in 0 until n) {
+        val o = obstacles[i]
+        val nearX = Math.max(Math.max(x0 - o.x, o.x - x1), 0.0)
+        val nearY = Math.max(Math.max(y0 - o.y, o.y - y1), 0.0)
+        val farX = Math.max(o.x - x0, x1 - o.x)
+        val farY = Math.max(o.y - y0, y1 - o.y)
+        minDistances[i] = Math.sqrt(nearX * nearX + nearY * nearY)
+        bound = Math.min(bound, Math.sqrt(farX * farX + farY * farY))
+      }
+      closestStart[cell] = closest.size
+      touchStart[cell] = touch.size
+      for (i in 0 until n) {
+        if (minDistances[i] <= bound + MARGIN) closest += i
+        if (minDistances[i] < obstacles[i].radius + QUEEN_RADIUS + TOUCHING_DELTA + MARGIN) touch += i
+      }
+    }
+    closestStart[cols * rows] = closest.size
+    touchStart[cols * rows] = touch.size
+    closestItems = closest.toIntArray()
+    touchItems = touch.toIntArray()
+  }
+
+  companion object {
+    const val CELL_SIZE = 50
+    // Absorbs rounding between the cell bounds and the exact point distances
+    private const val MARGIN = 1e-6
+  }
+}
@@ -1,7 +1,6 @@
 package com.codingame.game
 
 import com.codingame.game.Constants.QUEEN_HP
-import com.codingame.game.Constants.QUEEN_VISION
 import com.codingame.game.Constants.STARTING_GOLD
 import com.codingame.gameengine.core.AbstractPlayer
 import kotlin.math.roundToInt
@@ -11,49 +10,39 @@ class Player : AbstractPlayer() {
   lateinit var queenUnit: Queen
   lateinit var enemyPlayer: Player
   var isSecondPlayer: Boolean = false
+  /** 0 or 1, whatever index the game manager gave. */
+  val side get() = if (isSecondPlayer) 1 else 0
 
-  private fun fixOwner(player: Player?) = when (player) { null -> -1; this -> 0; else -> 1 }
+  val inputLine = InputLineWriter()
 
-  fun printObstacleInit(obstacle: Obstacle) {
-    val (x,y) = obstacle.location
-    val toks = listOf(obstacle.obstacleId, x.roundToInt(), y.roundToInt(), obstacle.radius)
-    sendInputLine(toks.joinToString(" "))
+  fun printObstacleInit(obstacle: Obstacle, send: (String) -> kotlin.Unit) {
+    inputLine.add(obstacle.obstacleId, obstacle.x.roundToInt(), obstacle.y.roundToInt(), obstacle.radius).sendTo(send)
   }
 
-  fun printObstaclePerTurn(obstacle: Obstacle) {
-    val struc = obstacle.structure
-    val visible = (struc != null && struc.owner == this) || obstacle.location.distanceTo(queenUnit.location) < QUEEN_VISION
-
-    val toks = listOf(
-        obstacle.obstacleId,
-        if (visible) obstacle.gold else -1,
-        if (visible) obstacle.maxMineSize else -1) + when (struc) {
-      is Mine -> listOf(0, fixOwner(struc.owner), if (visible) struc.incomeRate else -1, -1)
-      is Tower -> listOf(1, fixOwner(struc.owner), struc.health, struc.attackRadius)
-      is Barracks -> listOf(2, fixOwner(struc.owner), if(!struc.isTraining) 0 else struc.progressMax - struc.progress, struc.creepType.ordinal)
-      else -> listOf(-1, -1, -1, -1)
-    }
-    sendInputLine(toks.joinToString(" "))
-  }
-
-  val activeCreeps = mutableListOf<Creep>()
+  val activeCreeps = CreepList()
+  val creepIndex = CreepIndex(activeCreeps)
 
   fun allUnits() = activeCreeps + queenUnit
 
-  var health by nonNegative<Player>(100).andAlso { if (score >= 0) score = it }
+  var health = 100
+    set(value) {
+      val health = Math.max(value, 0)
+      rekey(StateKey.PLAYER_HEALTH, field, health)
+      field = health
+      if (score >= 0) score = health
+    }
   var gold = STARTING_GOLD
+    set(value) {
+      rekey(StateKey.PLAYER_GOLD, field, value)
+      field = value
+    }
   var goldPerTurn = 0
 
-  fun checkQueenHealth() {
-    queenUnit.health = health
-    if (health == 0) deactivate("Dead queen")
-    hud.update()
-  }
+  lateinit var context: GameContext
 
-  val hud by lazy { PlayerHUD(this, isSecondPlayer) }
+  val hud by lazy { context.view?.playerView(this) }
 
-  fun kill(reason: String) {
-    score = -1
-    deactivate(reason)
+  private fun rekey(feature: Int, old: Int, new: Int) {
+    if (::context.isInitialized) context.stateKey.replace(feature, side, old.toLong(), new.toLong())
   }
 }
\ No newline at end of file
@@ -2,8 +2,15 @@ package com.codingame.game
 
 import com.codingame.game.Constants.QUEEN_HP
 import com.codingame.game.Constants.QUEEN_HP_MULT
+import com.codingame.gameengine.module.entities.Entity
+import com.codingame.gameengine.module.entities.GraphicEntityModule
 
-class PlayerHUD(private val player: Player, isSecondPlayer: Boolean) {
+class PlayerHUD(
+  private val entityManager: GraphicEntityModule,
+  private val player: Player,
+  isSecondPlayer: Boolean,
+  private val payload: ViewPayloadStats
+) : PlayerView {
   private val left = if (isSecondPlayer) 1920/2 else 0
   private val right = if (isSecondPlayer) 1920 else 1920/2
   private val top = viewportY.last
@@ -11,7 +18,7 @@ class PlayerHUD(private val player: Player, isSecondPlayer: Boolean) {
 
   private val healthBarWidth = 420
 
-  private val avatar = theEntityManager.createSprite()
+  private val avatar = entityManager.createSprite()
     .setImage(player.avatarToken)
     .setY(bottom).setAnchorY(1.0)
     .apply { if (isSecondPlayer) { x = 1920; anchorX = 1.0 } else { x = 0 } }
@@ -20,7 +27,7 @@ class PlayerHUD(private val player: Player, isSecondPlayer: Boolean) {
     .setZIndex(4003)!!
 
   init {
-    val maskCircle = theEntityManager.createCircle()
+    val maskCircle = entityManager.createCircle()
       .setRadius(64)
       .setX( if (isSecondPlayer) 1920-69 else 69)
       .setY(bottom - 68)
@@ -28,7 +35,7 @@ class PlayerHUD(private val player: Player, isSecondPlayer: Boolean) {
     avatar.setMask(maskCircle)
   }
 
-  private val healthBarFillMask = theEntityManager.createRectangle()!!
+  private val healthBarFillMask = entityManager.createRectangle()!!
     .setLineAlpha(0.0)
     .setY(top + 39)
     .setX(if (isSecondPlayer) 1920 - 139 - healthBarWidth else 143)
@@ -38,14 +45,14 @@ class PlayerHUD(private val player: Player, isSecondPlayer: Boolean) {
     .setLineWidth(0)
     .setZIndex(4002)
 
-  private val healthBarFill = theEntityManager.createSprite()
+  private val healthBarFill = entityManager.createSprite()
     .setImage(if (isSecondPlayer) "Life-Bleu" else "Life-Rouge")
     .setX(if (isSecondPlayer) 1920 - 139 - healthBarWidth else 143)
     .setY(top + 39)
     .setZIndex(4002)
     .setMask(healthBarFillMask)
 
-  private val playerName = theEntityManager.createText(player.nicknameToken)!!
+  private val playerName = entityManager.createText(player.nicknameToken)!!
     .setY(bottom - 45).setAnchorY(1.0)
     .apply { if (isSecondPlayer) { x = 1770; anchorX = 1.0 } else { x = 150 }}
     .setFillColor(0xffffff)
@@ -53,7 +60,7 @@ class PlayerHUD(private val player: Player, isSecondPlayer: Boolean) {
     .setFontFamily("Arial Black")
     .setZIndex(4003)
 
-  private val healthText = theEntityManager.createText(player.health.toString())!!
+  private val healthText = entityManager.createText(player.health.toString())!!
     .setX(healthBarFillMask.x + healthBarFillMask.width - 10).setY(healthBarFillMask.y + healthBarFillMask.height/2)
     .setAnchorX(1.0).setAnchorY(0.5)
     .setScale(1.3)
@@ -61,7 +68,7 @@ class PlayerHUD(private val player: Player, isSecondPlayer: Boolean) {
     .setFillColor(0xffffff)
     .setZIndex(4003)
 
-  private val moneyText = theEntityManager.createText("0")
+  private val moneyText = entityManager.createText("0")
     .setY(bottom - 40).setAnchorY(0.5)
     .setX(if (isSecondPlayer) 1020 else 700)
     .setFillColor(0xffffff)
@@ -69,7 +76,7 @@ class PlayerHUD(private val player: Player, isSecondPlayer: Boolean) {
     .setFontFamily("Arial Black")
     .setZIndex(4002)!!
 
-  private val moneyIncText = theEntityManager.createText("")
+  private val moneyIncText = entityManager.createText("")
     .setY(bottom - 40).setAnchorY(0.5)
     .setX(if (isSecondPlayer) 1220 else 910).setAnchorX(1.0)
     .setFillColor(0xffffff)
@@ -77,18 +84,35 @@ class PlayerHUD(private val player: Player, isSecondPlayer: Boolean) {
     .setFontFamily("Arial Black")
     .setZIndex(4002)!!
 
-  fun update() {
-    healthBarFillMask.width = healthBarWidth * player.health / (QUEEN_HP.last * QUEEN_HP_MULT)
-    healthText.text = player.health.toString()
-    moneyText.text = player.gold.toString()
-    moneyIncText.text = when (player.goldPerTurn) {
+  // the texts the last commits showed, null before the first update
+  private var shownMoney: String? = null
+  private var shownMoneyInc: String? = null
+
+  override fun update() {
+    val healthWidth = healthBarWidth * player.health / (QUEEN_HP.last * QUEEN_HP_MULT)
+    if (healthBarFillMask.width != healthWidth) healthBarFillMask.width = healthWidth
+    val health = player.health.toString()
+    if (healthText.text != health) healthText.text = health
+
+    val money = player.gold.toString()
+    if (money != shownMoney) {
+      moneyText.text = money
+      commit(0.0, moneyText)
+      shownMoney = money
+    }
+    val moneyInc = when (player.goldPerTurn) {
       0 -> ""
       else -> "+${player.goldPerTurn}"
     }
-    theEntityManager.commitEntityState(0.0, moneyText, moneyIncText)
+    if (moneyInc != shownMoneyInc) {
+      moneyIncText.text = moneyInc
+      commit(0.0, moneyIncText)
+      shownMoneyInc = moneyInc
+    }
   }
 
-  companion object {
-    lateinit var obstacles: List<Obstacle>
+  private fun commit(t: Double, entity: Entity<*>) {
+    entityManager.commitEntityState(t, entity)
+    payload.add(ViewModule.ENTITIES)
   }
 }
\ No newline at end of file
@@ -0,0 +1,59 @@
+package com.codingame.game
+
+/**
+ * Remembers what one player was last told about each site, for the delta site protocol: instead of one line per site,
+ * a turn sends the number of site lines that follow, then only the sites whose line changed since that player last saw
+ * them. Every [resyncTurns] turns, and on the first turn, all sites are sent again. Only meant for local agents; the
+ * classic protocol stays the default.
+ */
+class SiteDeltas(private val resyncTurns: Int) {
+  /** The site lines of the current turn, [SITE_FIELDS] per site; filled in by the [WorldFrame]. */
+  internal var current = IntArray(0)
+    private set
+  private var sent = IntArray(0)
+  private var changed = IntArray(0)
+  private var turnsSinceResync = 0
+  var changedCount = 0
+    private set
+
+  init {
+    require(resyncTurns > 0) { "resyncTurns must be positive" }
+  }
+
+  /** Sends every site again on the next turn, e.g. after the game was restored to another state. */
+  fun resync() {
+    turnsSinceResync = 0
+  }
+
+  internal fun prepare(siteCount: Int) {
+    if (current.size == siteCount * SITE_FIELDS) return
+    current = IntArray(siteCount * SITE_FIELDS)
+    sent = IntArray(siteCount * SITE_FIELDS)
+    changed = IntArray(siteCount)
+    resync()
+  }
+
+  /** Compares [current] with what was sent before and remembers it as sent. */
+  internal fun diff() {
+    val full = turnsSinceResync == 0
+    turnsSinceResync = (turnsSinceResync + 1) % resyncTurns
+    changedCount = 0
+    for (site in changed.indices) {
+      val from = site * SITE_FIELDS
+      var same = !full
+      for (i in from until from + SITE_FIELDS) {
+        if (sent[i] != current[i]) {
+          same = false
+          sent[i] = current[i]
+        }
+      }
+      if (!same) changed[changedCount++] = site
+    }
+  }
+
+  internal fun changedSite(i: Int) = changed[i]
+
+  companion object {
+    const val SITE_FIELDS = 7
+  }
+}
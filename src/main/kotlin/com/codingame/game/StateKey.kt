@@ -0,0 +1,63 @@
+package com.codingame.game
+
+import kotlin.math.roundToInt
+
+/**
+ * A 64-bit key of the match state, Zobrist style: each feature of the state, like a player's gold or a tower's health,
+ * adds a pseudo-random part drawn from the feature, its subject and its value, and the game objects swap that part
+ * whenever the value changes, so the key is never recomputed during a match. Parts are summed rather than XORed, so
+ * that two identical creeps do not cancel out.
+ *
+ * The key covers what decides how the match goes on: which players are still playing, their gold and health, the gold
+ * left in each site, the structures with their income rate, health or training, and where each queen and creep stands,
+ * with its health. Units are keyed when snapped to whole pixels at the end of a turn, so the key only means something
+ * between turns. A creep is keyed along with its place in its owner's list: creeps move, push each other apart, attack
+ * and are targeted in that order, so the same creeps in another order may play out differently.
+ */
+class StateKey {
+  var value = 0L
+    private set
+
+  fun replace(feature: Int, subject: Int, old: Long, new: Long) {
+    if (old != new) value += part(feature, subject, new) - part(feature, subject, old)
+  }
+
+  fun update(removedPart: Long, addedPart: Long) {
+    value += addedPart - removedPart
+  }
+
+  fun reset(value: Long) {
+    this.value = value
+  }
+
+  companion object {
+    const val PLAYER_GOLD = 1
+    const val PLAYER_HEALTH = 2
+    const val SITE_GOLD = 3
+    const val STRUCTURE = 4
+    const val MINE_INCOME_RATE = 5
+    const val TOWER_HEALTH = 6
+    const val BARRACKS_TRAINING = 7
+    const val QUEEN = 8
+    const val CREEP = 9
+    const val PLAYER_ACTIVE = 10
+
+    /** SplitMix64's finalizer over the feature (4 bits), its subject (12 bits) and its value (48 bits). */
+    fun part(feature: Int, subject: Int, value: Long): Long {
+      var z = (feature.toLong() shl 60) + (subject.toLong() and 0xfff shl 48) + (value and 0xffffffffffffL)
+      z += -0x61c8864680b583ebL
+      z = (z xor (z ushr 30)) * -0x40a7b892e31b1a47L
+      z = (z xor (z ushr 27)) * -0x6b2fb644ecceee15L
+      return z xor (z ushr 31)
+    }
+
+    /** The part of a queen, or of the creep at [index] in its owner's list. */
+    fun unitPart(unit: Unit, index: Int = 0): Long {
+      val kind = if (unit is Creep) unit.creepType.ordinal + 1 else 0
+      val x = unit.x.roundToInt().toLong() and 0x3fff
+      val y = unit.y.roundToInt().toLong() and 0x3fff
+      val value = (kind.toLong() shl 44) + (x shl 30) + (y shl 16) + (unit.health.toLong() and 0xffff)
+      return part(if (unit is Creep) CREEP else QUEEN, (unit.owner.side shl 11) + (index and 0x7ff), value)
+    }
+  }
+}
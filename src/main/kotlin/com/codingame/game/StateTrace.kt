@@ -0,0 +1,91 @@
+package com.codingame.game
+
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+
+/** Where two [StateTrace]s of one match first disagree, with the values each run had there. */
+class Divergence(val turn: Int, val field: String, val expected: String, val actual: String) {
+  override fun toString() = "turn $turn, $field: expected $expected, got $actual"
+}
+
+/**
+ * The whole state of a match after each turn, to check that two ways of playing it, e.g. with and without a view,
+ * play it the same: the state after setting up the map is recorded as turn 0, then each turn as numbered when played.
+ */
+class StateTrace(val leagueLevel: Int, val seed: Long) {
+  private val turns = mutableListOf<Int>()
+  private val snapshots = mutableListOf<GameSnapshot>()
+
+  val size get() = turns.size
+
+  fun record(turn: Int, snapshot: GameSnapshot) {
+    turns += turn
+    snapshots += snapshot
+  }
+
+  fun turn(index: Int) = turns[index]
+
+  fun hash(index: Int) = snapshots[index].hash()
+
+  /** @return where [other], played from the same inputs, first differs from this trace, or null if it never does */
+  fun firstDivergence(other: StateTrace): Divergence? {
+    for (index in 0 until Math.max(size, other.size)) {
+      if (index >= other.size) return Divergence(turns[index], "end of match", "more turns", "none")
+      if (index >= size) return Divergence(other.turns[index], "end of match", "none", "more turns")
+      if (turns[index] != other.turns[index]) {
+        return Divergence(turns[index], "turn number", turns[index].toString(), other.turns[index].toString())
+      }
+      val expected = snapshots[index]
+      val actual = other.snapshots[index]
+      val field = expected.firstDifference(actual)
+      if (field >= 0) {
+        return Divergence(turns[index], expected.fieldName(field), valueText(expected, field), valueText(actual, field))
+      }
+    }
+    return null
+  }
+
+  private fun valueText(snapshot: GameSnapshot, field: Int) =
+    if (field < snapshot.size) snapshot[field].toString() else "none"
+
+  /** Writes the trace gzipped: a header, then per turn its number, player count and fields. */
+  fun writeTo(output: OutputStream) {
+    val gzip = GZIPOutputStream(output)
+    DataOutputStream(gzip).run {
+      writeInt(MAGIC)
+      writeInt(leagueLevel)
+      writeLong(seed)
+      writeInt(size)
+      for (index in 0 until size) {
+        val snapshot = snapshots[index]
+        writeInt(turns[index])
+        writeInt(snapshot.playerCount)
+        writeInt(snapshot.size)
+        snapshot.data.forEach { writeDouble(it) }
+      }
+      flush()
+    }
+    gzip.finish()
+  }
+
+  companion object {
+    private const val MAGIC = 0x43525331  // "CRS1"
+
+    fun readFrom(input: InputStream): StateTrace {
+      val data = DataInputStream(GZIPInputStream(input))
+      if (data.readInt() != MAGIC) throw IOException("Not a state trace")
+      val trace = StateTrace(data.readInt(), data.readLong())
+      repeat(data.readInt()) {
+        val turn = data.readInt()
+        val playerCount = data.readInt()
+        trace.record(turn, GameSnapshot(DoubleArray(data.readInt()) { data.readDouble() }, playerCount))
+      }
+      return trace
+    }
+  }
+}
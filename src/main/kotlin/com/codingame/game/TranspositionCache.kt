@@ -0,0 +1,41 @@
+package com.codingame.game
+
+import java.util.LinkedHashMap
+
+/**
+ * The results of up to [capacity] turns played by a [ForwardModel], dropping the least recently used first. A turn is
+ * known by the [StateKey] it starts from, which includes the order of the creeps and who is still playing, the parity
+ * of its number, the only thing the rules look at in it, and both players' actions. Two positions sharing a key would
+ * share results, which at 64 bits is a risk searches commonly take.
+ */
+class TranspositionCache(private val capacity: Int) {
+  private data class Turn(val key: Long, val parity: Int, val actionsP0: TurnActions, val actionsP1: TurnActions)
+
+  private val results = object : LinkedHashMap<Turn, ForwardState>(16, 0.75f, true) {
+    override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Turn, ForwardState>?) = size > capacity
+  }
+
+  var hits = 0L
+    private set
+  var misses = 0L
+    private set
+
+  val size get() = results.size
+
+  /** @return the state after playing [actionsP0] and [actionsP1] from [state], if known */
+  fun get(state: ForwardState, actionsP0: TurnActions, actionsP1: TurnActions): ForwardState? {
+    val result = results[Turn(state.key, state.turn % 2, actionsP0, actionsP1)]
+    if (result == null) {
+      misses++
+      return null
+    }
+    hits++
+    return if (result.turn == state.turn + 1) result else ForwardState(state.turn + 1, result.snapshot, result.key)
+  }
+
+  fun put(state: ForwardState, actionsP0: TurnActions, actionsP1: TurnActions, result: ForwardState) {
+    results[Turn(state.key, state.turn % 2, actionsP0, actionsP1)] = result
+  }
+
+  fun clear() = results.clear()
+}
@@ -0,0 +1,87 @@
+package com.codingame.game
+
+enum class TurnPhase {
+  /** Building one player's input lines. */
+  SEND_GAME_STATE,
+  /** Waiting for one player's answer; timed by the host. */
+  AGENT,
+  PLAYER_ACTIONS,
+  /** One of the [Constants.CREEP_MOVE_SUBSTEPS] creep moves. */
+  CREEP_MOVEMENT,
+  /** The collision pass after one creep move. */
+  CREEP_COLLISIONS,
+  /** Creep attacks, mine teardown, creep aging and queen teardown. */
+  CREEP_DAMAGE,
+  STRUCTURES,
+  DEAD_CREEPS,
+  /** Queen health checks, HUD updates and snapping to integer coordinates. */
+  END_OF_TURN,
+  /** In the [Referee], from the end of one turn to the start of the next: the game manager sends out the view frame. */
+  BETWEEN_TURNS
+}
+
+/** Receives how long each phase of a turn took, as set on [GameEngine.metrics]. */
+interface TurnMetrics {
+  fun record(phase: TurnPhase, nanos: Long)
+}
+
+/** Runs [block], reporting its duration under [phase] when there is anything to report to. */
+inline fun <T> TurnMetrics?.timed(phase: TurnPhase, block: () -> T): T {
+  if (this == null) return block()
+  val start = System.nanoTime()
+  try {
+    return block()
+  } finally {
+    record(phase, System.nanoTime() - start)
+  }
+}
+
+/**
+ * Keeps a histogram of durations for each phase, in power-of-two nanosecond buckets. Meant for one match at a time;
+ * not thread-safe.
+ */
+class PhaseHistograms : TurnMetrics {
+  private val phases = TurnPhase.values()
+  private val buckets = Array(phases.size) { LongArray(64) }
+  private val counts = LongArray(phases.size)
+  private val totals = LongArray(phases.size)
+  private val maxima = LongArray(phases.size)
+
+  override fun record(phase: TurnPhase, nanos: Long) {
+    val p = phase.ordinal
+    buckets[p][63 - java.lang.Long.numberOfLeadingZeros(Math.max(nanos, 1))]++
+    counts[p]++
+    totals[p] += nanos
+    maxima[p] = Math.max(maxima[p], nanos)
+  }
+
+  fun count(phase: TurnPhase) = counts[phase.ordinal]
+  fun totalNanos(phase: TurnPhase) = totals[phase.ordinal]
+  fun maxNanos(phase: TurnPhase) = maxima[phase.ordinal]
+
+  /** Upper bound of the bucket holding the [fraction] quantile, in nanoseconds. */
+  fun quantileNanos(phase: TurnPhase, fraction: Double): Long {
+    val p = phase.ordinal
+    val rank = Math.ceil(counts[p] * fraction).toLong().coerceAtLeast(1)
+    var seen = 0L
+    for (b in 0 until 64) {
+      seen += buckets[p][b]
+      if (seen >= rank) return Math.min((1L shl b) * 2 - 1, maxima[p])
+    }
+    return maxima[p]
+  }
+
+  fun reset() {
+    buckets.forEach { it.fill(0) }
+    counts.fill(0)
+    totals.fill(0)
+    maxima.fill(0)
+  }
+
+  /** One line per phase that was recorded: count, total, mean, p50, p99 and max, in microseconds. */
+  fun dump(): String = phases.filter { counts[it.ordinal] > 0 }.joinToString("\n") {
+    fun us(nanos: Long) = "%.1f".format(nanos / 1000.0)
+    "%-16s n=%d total=%s mean=%s p50<=%s p99<=%s max=%s".format(it.name, count(it), us(totalNanos(it)),
+      us(totalNanos(it) / count(it)), us(quantileNanos(it, 0.5)), us(quantileNanos(it, 0.99)), us(maxNanos(it)))
+  }
+}
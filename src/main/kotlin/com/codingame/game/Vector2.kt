@@ -8,22 +8,29 @@ data class Distance(private val squareDistance: Double): Comparable<Distance> {
   override fun compareTo(other: Distance) = squareDistance.compareTo(other.squareDistance)
   operator fun compareTo(compareDist: Double) = squareDistance.compareTo(compareDist * compareDist)
   operator fun compareTo(compareDist: Int) = squareDistance.compareTo(compareDist * compareDist)
-  val toDouble by lazy { sqrt(squareDistance) }
+  val toDouble get() = sqrt(squareDistance)
+}
+
+/** Squared euclidean distance between two points, for comparisons that need neither a [Vector2] nor a square root. */
+fun distanceSquared(x1: Double, y1: Double, x2: Double, y2: Double): Double {
+  val dx = x1 - x2
+  val dy = y1 - y2
+  return dx * dx + dy * dy
 }
 
 @Suppress("MemberVisibilityCanBePrivate", "unused")  // It's a utility, ok
 data class Vector2(val x: Double, val y: Double) {
-  private val lengthSquared by lazy { x*x + y*y }
-  val length by lazy { Distance(lengthSquared) }
-  val isNearZero by lazy { Math.abs(x) < 1e-12 && Math.abs(y) < 1e-12 }
-  val normalized: Vector2 by lazy {
+  private val lengthSquared get() = x*x + y*y
+  val length get() = Distance(lengthSquared)
+  val isNearZero get() = Math.abs(x) < 1e-12 && Math.abs(y) < 1e-12
+  val normalized: Vector2 get() {
     val len = length
-    when {
+    return when {
       len < 1e-6 -> Vector2(1,0)
       else -> Vector2(x / len.toDouble, y / len.toDouble)
     }
   }
-  val angle by lazy { Math.atan2(y, x) }
+  val angle get() = Math.atan2(y, x)
 
   constructor(x: Int, y: Int): this(x.toDouble(), y.toDouble())
 
@@ -0,0 +1,48 @@
+package com.codingame.game
+
+/** A view module, and the unit [ViewPayloadStats] measures it in. */
+enum class ViewModule(val column: String) {
+  ENTITIES("entity_states"), TOOLTIPS("tooltip_bytes"), ANIMATIONS("anim_bytes")
+}
+
+/**
+ * Measures, per turn, what each view module sends. The tooltip and animation modules report the size of each frame
+ * they serialize; the entity module's frames are serialized by the SDK, out of reach, so it is measured in entity
+ * states committed instead.
+ */
+class ViewPayloadStats {
+  private val current = IntArray(ViewModule.values().size)
+  private val turns = mutableListOf<IntArray>()
+
+  val turnCount get() = turns.size
+
+  fun add(module: ViewModule, count: Int = 1) {
+    current[module.ordinal] += count
+  }
+
+  /**
+   * Adds a frame sent by [module]. Modules send their frame once the turn is over, so it counts towards the last turn
+   * ended, or, for the frame sent at game init, towards the first one.
+   */
+  fun addFrame(module: ViewModule, bytes: Int) {
+    (turns.lastOrNull() ?: current)[module.ordinal] += bytes
+  }
+
+  fun endTurn() {
+    turns += current.copyOf()
+    current.fill(0)
+  }
+
+  fun count(turn: Int, module: ViewModule) = turns[turn][module.ordinal]
+
+  fun total(module: ViewModule) = turns.sumBy { it[module.ordinal] }
+
+  fun dump(out: Appendable) {
+    val modules = ViewModule.values()
+    out.append("turn").append(modules.joinToString("") { " " + it.column }).append('\n')
+    turns.forEachIndexed { turn, counts ->
+      out.append(turn.toString()).append(counts.joinToString("") { " $it" }).append('\n')
+    }
+    out.append("total").append(modules.joinToString("") { " ${total(it)}" }).append('\n')
+  }
+}
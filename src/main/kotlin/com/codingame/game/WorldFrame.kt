@@ -0,0 +1,165 @@
+package com.codingame.game
+
+import com.codingame.game.Constants.QUEEN_VISION
+import kotlin.math.roundToInt
+
+/**
+ * What the players can be told about one turn, gathered once and shared by all of them: each player's input is derived
+ * from it by flipping owners and masking what their queen cannot see. Owners are stored as indices into the engine's
+ * players, or -1 for none.
+ *
+ * Obtained from [GameEngine.worldFrame]; the arrays are reused from turn to turn, so copy them to keep a turn around.
+ */
+class WorldFrame internal constructor(private val players: List<Player>) {
+  val gold = IntArray(players.size)
+  /** Per player, the id of the obstacle its queen touches, or -1. */
+  val touchedObstacle = IntArray(players.size)
+
+  var obstacleCount = 0
+    private set
+  /**
+   * [OBSTACLE_FIELDS] per obstacle: id, gold, max mine size, structure type (-1 for none, then mine, tower, barracks),
+   * owner, two structure parameters as sent to the players, and a bitmask of the players whose queen can see it.
+   */
+  var obstacles = IntArray(0)
+    private set
+
+  var unitCount = 0
+    private set
+  /** [UNIT_FIELDS] per unit, creeps first then the queen for each active player: x, y, owner, creep type or -1, health. */
+  var units = IntArray(0)
+    private set
+
+  internal fun capture(obstacleList: List<Obstacle>, obstacleIndex: ObstacleIndex, activePlayers: List<Player>) {
+    players.forEachIndexed { p, player ->
+      gold[p] = player.gold
+      touchedObstacle[p] = obstacleIndex.touchedByQueen(player.queenUnit.x, player.queenUnit.y)?.obstacleId ?: -1
+    }
+
+    obstacleCount = obstacleList.size
+    if (obstacles.size < obstacleCount * OBSTACLE_FIELDS) obstacles = IntArray(obstacleCount * OBSTACLE_FIELDS)
+    var i = 0
+    obstacleList.forEach { obstacle ->
+      val struc = obstacle.structure
+      val owner = if (struc == null) -1 else players.indexOf(struc.owner)
+      var visibleTo = 0
+      players.forEachIndexed { p, player ->
+        if (owner == p || obstacle.distanceSquaredTo(player.queenUnit) < QUEEN_VISION * QUEEN_VISION) visibleTo = visibleTo or (1 shl p)
+      }
+      obstacles[i++] = obstacle.obstacleId
+      obstacles[i++] = obstacle.gold
+      obstacles[i++] = obstacle.maxMineSize
+      when (struc) {
+        is Mine -> { obstacles[i++] = 0; obstacles[i++] = owner; obstacles[i++] = struc.incomeRate; obstacles[i++] = -1 }
+        is Tower -> { obstacles[i++] = 1; obstacles[i++] = owner; obstacles[i++] = struc.health; obstacles[i++] = struc.attackRadius }
+        is Barracks -> {
+          obstacles[i++] = 2
+          obstacles[i++] = owner
+          obstacles[i++] = if (!struc.isTraining) 0 else struc.progressMax - struc.progress
+          obstacles[i++] = struc.creepType.ordinal
+        }
+        else -> { obstacles[i++] = -1; obstacles[i++] = -1; obstacles[i++] = -1; obstacles[i++] = -1 }
+      }
+      obstacles[i++] = visibleTo
+    }
+
+    unitCount = activePlayers.sumBy { it.activeCreeps.size + 1 }
+    if (units.size < unitCount * UNIT_FIELDS) units = IntArray(unitCount * UNIT_FIELDS)
+    i = 0
+    activePlayers.forEach { player ->
+      val owner = players.indexOf(player)
+      player.activeCreeps.forEach {
+        units[i++] = it.x.roundToInt(); units[i++] = it.y.roundToInt(); units[i++] = owner
+        units[i++] = it.creepType.ordinal; units[i++] = it.health
+      }
+      val queen = player.queenUnit
+      units[i++] = queen.x.roundToInt(); units[i++] = queen.y.roundToInt(); units[i++] = owner
+      units[i++] = -1; units[i++] = player.health
+    }
+  }
+
+  private fun relative(owner: Int, p: Int) = when (owner) { -1 -> -1; p -> 0; else -> 1 }
+  private fun isVisible(site: Int, p: Int) = obstacles[site * OBSTACLE_FIELDS + 7] and (1 shl p) != 0
+
+  // Site fields as seen by the player at index p
+  private fun siteGold(site: Int, p: Int) = if (isVisible(site, p)) obstacles[site * OBSTACLE_FIELDS + 1] else -1
+  private fun siteMaxMineSize(site: Int, p: Int) = if (isVisible(site, p)) obstacles[site * OBSTACLE_FIELDS + 2] else -1
+  private fun siteOwner(site: Int, p: Int) = relative(obstacles[site * OBSTACLE_FIELDS + 4], p)
+  private fun siteParam1(site: Int, p: Int) =
+    if (obstacles[site * OBSTACLE_FIELDS + 3] == 0 && !isVisible(site, p)) -1 else obstacles[site * OBSTACLE_FIELDS + 5]
+
+  /** Sends the per-turn input lines of [player], as seen from its side. */
+  fun sendTo(player: Player, send: (String) -> kotlin.Unit) {
+    val p = players.indexOf(player)
+    val line = player.inputLine
+
+    line.add(gold[p]).add(touchedObstacle[p]).sendTo(send)
+    for (o in 0 until obstacleCount) {
+      val i = o * OBSTACLE_FIELDS
+      line.add(obstacles[i]).add(siteGold(o, p)).add(siteMaxMineSize(o, p))
+        .add(obstacles[i + 3], siteOwner(o, p), siteParam1(o, p), obstacles[i + 6])
+        .sendTo(send)
+    }
+
+    sendUnits(p, line, send)
+  }
+
+  private fun sendUnits(p: Int, line: InputLineWriter, send: (String) -> kotlin.Unit) {
+    line.add(unitCount).sendTo(send)
+    for (u in 0 until unitCount) {
+      val i = u * UNIT_FIELDS
+      line.add(units[i], units[i + 1], if (units[i + 2] == p) 0 else 1, units[i + 3]).add(units[i + 4]).sendTo(send)
+    }
+  }
+
+  /** Sends the per-turn input lines of [player] with the delta site protocol described in [SiteDeltas]. */
+  fun sendTo(player: Player, deltas: SiteDeltas, send: (String) -> kotlin.Unit) {
+    val p = players.indexOf(player)
+    val line = player.inputLine
+
+    line.add(gold[p]).add(touchedObstacle[p]).sendTo(send)
+    deltas.prepare(obstacleCount)
+    val sites = deltas.current
+    for (o in 0 until obstacleCount) {
+      val i = o * OBSTACLE_FIELDS
+      var f = o * SiteDeltas.SITE_FIELDS
+      sites[f++] = obstacles[i]
+      sites[f++] = siteGold(o, p)
+      sites[f++] = siteMaxMineSize(o, p)
+      sites[f++] = obstacles[i + 3]
+      sites[f++] = siteOwner(o, p)
+      sites[f++] = siteParam1(o, p)
+      sites[f] = obstacles[i + 6]
+    }
+    deltas.diff()
+    line.add(deltas.changedCount).sendTo(send)
+    for (c in 0 until deltas.changedCount) {
+      val f = deltas.changedSite(c) * SiteDeltas.SITE_FIELDS
+      line.add(sites[f], sites[f + 1], sites[f + 2], sites[f + 3]).add(sites[f + 4]).add(sites[f + 5]).add(sites[f + 6])
+        .sendTo(send)
+    }
+    sendUnits(p, line, send)
+  }
+
+  /** The same as [sendTo], as typed values; [obstacleList] gives the site locations sent at the start of the match. */
+  fun observe(player: Player, obstacleList: List<Obstacle>): Observation {
+    val p = players.indexOf(player)
+    val creepTypes = CreepType.values()
+    val sites = obstacleList.mapIndexed { o, obstacle ->
+      val i = o * OBSTACLE_FIELDS
+      SiteObservation(obstacles[i], obstacle.x.roundToInt(), obstacle.y.roundToInt(), obstacle.radius,
+        siteGold(o, p), siteMaxMineSize(o, p), obstacles[i + 3], siteOwner(o, p), siteParam1(o, p), obstacles[i + 6])
+    }
+    val unitList = (0 until unitCount).map { u ->
+      val i = u * UNIT_FIELDS
+      UnitObservation(units[i], units[i + 1], units[i + 2] == p, units[i + 3].takeIf { it >= 0 }?.let { creepTypes[it] },
+        units[i + 4])
+    }
+    return Observation(gold[p], touchedObstacle[p], sites, unitList)
+  }
+
+  companion object {
+    const val OBSTACLE_FIELDS = 8
+    const val UNIT_FIELDS = 5
+  }
+}
@@ -82,8 +82,11 @@ export class AnimModule {
 
   handleFrameData(frameInfo, anims) {
     const number = (frameInfo.number == 0) ? 0 : ++this.frames;
+    // columns: the event ids of this frame, then per event the index of its id, t, x and y
+    const [names, ids, ts, xs, ys] = anims.length ? anims : [[], [], [], [], []];
 
-    for (let a of anims) {
+    for (let i = 0; i < ids.length; i++) {
+      const a = {id: names[ids[i]], t: ts[i], params: {x: xs[i], y: ys[i]}};
       a.started = {frame: number, t: a.t}
       a.duration = DURATIONS[a.id] || 1;
       a.duration *= REPEAT[a.id] || 1;
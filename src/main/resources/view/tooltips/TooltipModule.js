@@ -68,12 +68,13 @@ function getMouseMoveFunc(tooltip, container, module) {
         const extras = module.extra[showing];
 
         if (extras) {
+          // extras are only sent when they change: show the latest one up to this frame
           const frames = Object.keys(extras).map(a => +a).sort((b,c) => b - c);
-          let index = 0;
-          while (index < frames.length - 1 && frames[index] < module.currentFrame) {
+          let index = -1;
+          while (index < frames.length - 1 && frames[index + 1] <= module.currentFrame) {
             index++;
           }
-          const extra = extras[frames[index]];
+          const extra = index >= 0 ? extras[frames[index]] : null;
           if (extra) {
             tooltip.label.text += "\n" + extra.join("\n")
           }
@@ -107,6 +108,7 @@ export class TooltipModule {
   constructor(assets) {
     this.registered = {};
     this.extra = {};
+    this.lines = [];
     this.lastProgress = 1;
     this.lastFrame = 0;
     this.toDestroy = [];
@@ -121,7 +123,7 @@ export class TooltipModule {
     this.currentProgress = progress;
   }
 
-  handleFrameData(frameInfo, [registrations, extra]) {
+  handleFrameData(frameInfo, [registrations, extra, lines]) {
 
     // Quick check
     Object.keys(registrations).forEach(
@@ -133,13 +135,14 @@ export class TooltipModule {
     );
 
     Object.assign(this.registered, registrations);
+    this.lines.push(...lines);
 
     Object.keys(extra).forEach(
       k => {
         if (!this.extra[k]) {
           this.extra[k] = {};
         }
-        this.extra[k][frameInfo.number] = extra[k];
+        this.extra[k][frameInfo.number] = extra[k].map(i => this.lines[i]);
       }
     );
     return { number: frameInfo.number };
@@ -0,0 +1,41 @@
+package com.codingame.game
+
+import com.codingame.game.Constants.QUEEN_RADIUS
+import com.codingame.game.Constants.TOUCHING_DELTA
+
+/** The strategy of [AllKnightPlayer], as an in-process [Agent]. */
+class AllKnightAgent : Agent {
+  override fun act(observation: Observation): TurnActions {
+    val queen = observation.queen
+    val queenLoc = Vector2(queen.x, queen.y)
+    fun distanceToQueen(site: SiteObservation) = Vector2(site.x, site.y).distanceTo(queenLoc).toDouble
+
+    val myBarracks = observation.sites.filter { it.owner == 0 && it.structureType == 2 }
+
+    fun getQueenAction(): QueenAction {
+
+      // if touching a mine that isn't at max capacity, keep growing it
+      val growingMine = observation.sites
+        .filter { it.owner == 0 && it.structureType == 0 && it.incomeRateOrHealthOrCooldown < it.maxMineSize }
+        .firstOrNull { distanceToQueen(it) - it.radius - QUEEN_RADIUS < TOUCHING_DELTA }
+
+      if (growingMine != null) return QueenAction.BuildMine(growingMine.siteId)
+
+      val queenTarget = observation.sites
+        .filter { it.owner == -1 }
+        .minBy { distanceToQueen(it) } ?: return QueenAction.Wait
+
+      val income = observation.sites
+        .filter { it.owner == 0 && it.structureType == 0 }
+        .sumBy { it.incomeRateOrHealthOrCooldown }
+
+      val maxUnitSpend = (myBarracks.size + 0.5) * 16 //  = 80/5
+      val needsBarracks = income >= maxUnitSpend
+
+      return if (needsBarracks) QueenAction.BuildBarracks(queenTarget.siteId, CreepType.KNIGHT)
+      else QueenAction.BuildMine(queenTarget.siteId)
+    }
+
+    return TurnActions(getQueenAction(), myBarracks.map { it.siteId })
+  }
+}
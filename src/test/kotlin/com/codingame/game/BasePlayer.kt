@@ -2,44 +2,43 @@ package com.codingame.game
 
 import java.io.InputStream
 import java.io.PrintStream
-import java.util.*
 
 @Suppress("unused")
 abstract class BasePlayer(stdin: InputStream, val stdout: PrintStream, val stderr: PrintStream) {
-  private val scanner = Scanner(stdin)
+  private val input = IntReader(stdin)
 
   var obstacles = listOf<ObstacleInput>()
 
   private fun readObstacleInit() = ObstacleInput(
-    scanner.nextInt(),
-    Vector2(scanner.nextInt(), scanner.nextInt()),
-    scanner.nextInt()
+    input.nextInt(),
+    Vector2(input.nextInt(), input.nextInt()),
+    input.nextInt()
   )//.also { stderr.println("Read obstacle: $it")}
 
   private fun readObstaclePerTurn() = ObstaclePerTurnInput(
-    scanner.nextInt(), scanner.nextInt(), scanner.nextInt(), scanner.nextInt(),
-      scanner.nextInt(), scanner.nextInt(), scanner.nextInt()
+    input.nextInt(), input.nextInt(), input.nextInt(), input.nextInt(),
+      input.nextInt(), input.nextInt(), input.nextInt()
   )
 
   private fun readUnit() = UnitInput(
-    Vector2(scanner.nextInt(), scanner.nextInt()), scanner.nextInt() == 0, {
-      val type = scanner.nextInt()
+    Vector2(input.nextInt(), input.nextInt()), input.nextInt() == 0, {
+      val type = input.nextInt()
       when (type) {
         -1 -> null
         else -> CreepType.values()[type]
       }
-    }(), scanner.nextInt()
+    }(), input.nextInt()
   )//.also { stderr.println("Read creep: $it")}
 
   init {
-    obstacles = (0 until scanner.nextInt()).map { readObstacleInit() }
+    obstacles = (0 until input.nextInt()).map { readObstacleInit() }
   }
 
   protected fun readInputs(): AllInputs {
-    val gold = scanner.nextInt()
-    val touchedObstacleId = scanner.nextInt()
+    val gold = input.nextInt()
+    val touchedObstacleId = input.nextInt()
     val obstacles = (0 until obstacles.size).map { applyObstacleUpdate(readObstaclePerTurn()) }
-    val units = (0 until scanner.nextInt()).map { readUnit() }
+    val units = (0 until input.nextInt()).map { readUnit() }
     return AllInputs(
       units.single { it.isFriendly && it.creepType == null }.let { it.location },
       units.single { it.isFriendly && it.creepType == null }.let { it.health },
@@ -0,0 +1,241 @@
+package com.codingame.game
+
+import com.codingame.gameengine.core.AbstractPlayer
+import java.io.File
+import java.util.Collections
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+private fun replay(log: InputLog): StateTrace {
+  val match = HeadlessMatch(log.leagueLevel, log.seed)
+  val trace = StateTrace(log.leagueLevel, log.seed)
+  match.stateTrace = trace
+  match.replay(log)
+  return trace
+}
+
+/** The host of an engine the check plays on its own. */
+private class CheckHost(private val players: List<Player>) : GameHost {
+  private val inactive = mutableSetOf<Player>()
+  var ended = false
+    private set
+
+  override val activePlayers: List<Player> get() = players.filter { it !in inactive }
+  override fun deactivate(player: Player, reason: String) { inactive += player }
+  override fun addToGameSummary(message: String) { }
+  override fun endGame() { ended = true }
+  override fun warn(message: String, error: Throwable?) { }
+}
+
+/**
+ * Replays [log] on an engine of its own. After every turn, the [StateKey] it kept up to date must be the one computed
+ * afresh, and swapping a player's first two creeps, when they differ, must change it.
+ * @return the number of turns checked, and a description of every failure
+ */
+private fun keyProblems(log: InputLog): Pair<Int, List<String>> {
+  val players = listOf(Player(), Player())
+  val host = CheckHost(players)
+  val engine = GameEngine(players, host, null)
+  engine.init(log.leagueLevel, log.seed)
+  val problems = mutableListOf<String>()
+  if (engine.stateKey != engine.computeStateKey()) problems += "start: the key kept is not the key computed"
+  var turns = 0
+  for (turn in 1..GameEngine.MAX_TURNS) {
+    val outputs = host.activePlayers.associate { it to log.answer(turn, players.indexOf(it)) }
+    engine.playTurn(turn) { player -> outputs[player] ?: throw AbstractPlayer.TimeoutException() }
+    turns = turn
+    if (engine.stateKey != engine.computeStateKey()) problems += "turn $turn: the key kept is not the key computed"
+    for (creeps in players.map { it.activeCreeps }) {
+      if (creeps.size < 2 || creeps[0].creepType == creeps[1].creepType && creeps[0].x == creeps[1].x) continue
+      val key = engine.computeStateKey()
+      Collections.swap(creeps, 0, 1)
+      if (engine.computeStateKey() == key) problems += "turn $turn: swapping two creeps keeps the key"
+      Collections.swap(creeps, 0, 1)
+    }
+    if (host.ended) break
+  }
+  return turns to problems
+}
+
+/**
+ * Plays a match of two [AllKnightAgent]s on a [ForwardModel], then steps through it twice on a model with a
+ * [TranspositionCache], the second time all from the cache. @return the number of steps, and how many of them did not
+ * give the state of the match
+ */
+private fun cachedStepsWrong(league: Int, seed: Long): Pair<Int, Int> {
+  val match = ForwardModel.ofMatch(league, seed)
+  val agents = listOf(AllKnightAgent(), AllKnightAgent())
+  val states = mutableListOf(match.save())
+  val actions = mutableListOf<Pair<TurnActions, TurnActions>>()
+  while (!match.isOver) {
+    val turnActions = agents[0].act(match.observe(0)) to agents[1].act(match.observe(1))
+    actions += turnActions
+    match.play(turnActions.first, turnActions.second)
+    states += match.save()
+  }
+
+  val model = ForwardModel.ofMatch(league, seed)
+  model.cache = TranspositionCache(2 * actions.size)
+  var steps = 0
+  var wrong = 0
+  repeat(2) {
+    var state = states[0]
+    actions.forEachIndexed { i, (actionsP0, actionsP1) ->
+      state = model.step(state, actionsP0, actionsP1)
+      steps++
+      val expected = states[i + 1]
+      val same = state.snapshot.firstDifference(expected.snapshot) < 0
+      if (!same || state.turn != expected.turn || state.key != expected.key) wrong++
+    }
+  }
+  return steps to wrong
+}
+
+/**
+ * Plays a match of two [AllKnightAgent]s on a [ForwardModel] and, each turn, steps a second model from the state the
+ * first player is told about. @return how many enemy mines out of its sight there were, and how many of those the
+ * match kept but that step lost
+ */
+private fun unseenMinesLost(league: Int, seed: Long): Pair<Int, Int> {
+  val match = ForwardModel.ofMatch(league, seed)
+  val probe = ForwardModel.ofMatch(league, seed)
+  val agents = listOf(AllKnightAgent(), AllKnightAgent())
+  fun kept(sites: List<SiteObservation>, mine: SiteObservation) =
+    sites.any { it.siteId == mine.siteId && it.owner == 1 && it.structureType == 0 }
+  var unseen = 0
+  var lost = 0
+  while (!match.isOver) {
+    val observations = listOf(match.observe(0), match.observe(1))
+    val actions = agents.mapIndexed { p, agent -> agent.act(observations[p]) }
+    val mines = observations[0].sites.filter { it.gold < 0 && it.owner == 1 && it.structureType == 0 }
+    if (mines.isNotEmpty()) {
+      val state = probe.stateOf(observations[0], 0, match.turn, observations[1].gold)
+      probe.step(state, actions[0], actions[1])
+    }
+    match.play(actions[0], actions[1])
+    if (mines.isEmpty()) continue
+
+    // A mine the match itself lost, e.g. as its gold ran out, may go
+    val played = match.observe(0).sites
+    val stepped = probe.observe(0).sites
+    unseen += mines.size
+    lost += mines.count { kept(played, it) && !kept(stepped, it) }
+  }
+  return unseen to lost
+}
+
+object DeterminismCheck {
+  /**
+   * `DeterminismCheck [--league 4] [--seeds 10] [--first-seed 1] [--threads N] [--bot SPEC] [--bot SPEC]
+   * [--trace INPUT_LOG STATE_TRACE]...`
+   *
+   * Plays each seed once with the two bots, then replays what they answered alone, then all seeds at once on
+   * `--threads` threads. Each seed is also played by two [AllKnightAgent]s, whose actions the engine takes without
+   * formatting them, and replayed from the lines they stand for. Every replay must go through the same states, turn for
+   * turn, as the match it replays; the first turn and field where one does not is reported.
+   *
+   * Replaying the bots' matches once more, the [StateKey] kept turn by turn must be the one computed afresh, and must
+   * tell the order of a player's creeps. The agents' matches are also played on a [ForwardModel], stepped each turn
+   * from the state an [Observation] tells, which must keep the enemy mines out of sight, and stepped again through a
+   * [TranspositionCache], which must give the same states.
+   *
+   * All these matches are headless. Whether the real view changes how a match plays is not checked here: the view
+   * needs the SDK's game manager and graphic entity module, which only a runner sets up. A match the [Referee] played
+   * is checked instead, saved with its "inputLog" and "stateTrace" parameters and given as a `--trace`, or as it ends
+   * with its "checkReplay" parameter.
+   */
+  @JvmStatic
+  fun main(args: Array<String>) {
+    var league = 4
+    var seedCount = 10
+    var firstSeed = 1L
+    var threads = Runtime.getRuntime().availableProcessors()
+    val specs = mutableListOf<String>()
+    val traces = mutableListOf<Pair<String, String>>()
+    var i = 0
+    while (i < args.size) {
+      val value = args.getOrElse(i + 1) { throw IllegalArgumentException("${args[i]} needs a value") }
+      when (args[i]) {
+        "--league" -> league = value.toInt()
+        "--seeds" -> seedCount = value.toInt()
+        "--first-seed" -> firstSeed = value.toLong()
+        "--threads" -> threads = value.toInt()
+        "--bot" -> specs += value
+        "--trace" -> {
+          traces += value to args.getOrElse(i + 2) { throw IllegalArgumentException("--trace needs two files") }
+          i++
+        }
+        else -> throw IllegalArgumentException("Unknown option ${args[i]}")
+      }
+      i += 2
+    }
+    require(specs.isEmpty() || specs.size == 2) { "Give two bots or none" }
+    val contestants = (if (specs.isEmpty()) listOf("CSJPlayer", "AllGiantsPlayer") else specs).map { Contestant.of(it) }
+
+    var divergences = 0
+    fun check(mode: String, expected: StateTrace, actual: StateTrace) {
+      val divergence = expected.firstDivergence(actual) ?: return
+      divergences++
+      println("seed ${expected.seed}, $mode: $divergence")
+    }
+
+    val executor = Executors.newFixedThreadPool(threads)
+    try {
+      val seeds = List(seedCount) { firstSeed + it }
+      val played = executor.invokeAll(seeds.map { seed ->
+        Callable {
+          val match = HeadlessMatch(league, seed)
+          match.stateTrace = StateTrace(league, seed)
+          match.play(contestants, 5000, 100)
+          match.inputLog to match.stateTrace!!
+        }
+      }).map { it.get() }
+
+      played.forEach { (log, trace) -> check("replay", trace, replay(log)) }
+      val typed = executor.invokeAll(seeds.map { seed ->
+        Callable {
+          val match = HeadlessMatch(league, seed)
+          match.stateTrace = StateTrace(league, seed)
+          match.play(listOf(AllKnightAgent(), AllKnightAgent()))
+          match.inputLog to match.stateTrace!!
+        }
+      }).map { it.get() }
+      typed.forEach { (log, trace) -> check("typed agents", trace, replay(log)) }
+      val mines = executor.invokeAll(seeds.map { seed -> Callable { unseenMinesLost(league, seed) } }).map { it.get() }
+      seeds.zip(mines).filter { (_, counts) -> counts.second > 0 }.forEach { (seed, counts) ->
+        divergences++
+        println("seed $seed, observed states: ${counts.second} of ${counts.first} unseen enemy mines lost in a turn")
+      }
+      val keys = executor.invokeAll(played.map { (log, _) -> Callable { keyProblems(log) } }).map { it.get() }
+      seeds.zip(keys).forEach { (seed, checked) ->
+        divergences += checked.second.size
+        checked.second.forEach { println("seed $seed, state key: $it") }
+      }
+      val cached = executor.invokeAll(seeds.map { seed -> Callable { cachedStepsWrong(league, seed) } })
+        .map { it.get() }
+      seeds.zip(cached).filter { (_, counts) -> counts.second > 0 }.forEach { (seed, counts) ->
+        divergences++
+        println("seed $seed, cached steps: ${counts.second} of ${counts.first} give another state")
+      }
+      val parallel = executor.invokeAll(played.map { (log, _) -> Callable { replay(log) } }).map { it.get() }
+      played.zip(parallel).forEach { (match, trace) -> check("$threads threads", match.second, trace) }
+      println("${played.size} seeds played, ${played.sumBy { it.second.size }} states compared per mode")
+      println("${mines.sumBy { it.first }} enemy mines out of sight stepped from observations")
+      println("${keys.sumBy { it.first }} state keys checked, ${cached.sumBy { it.first }} cached steps compared")
+    } finally {
+      executor.shutdown()
+    }
+
+    for ((logFile, traceFile) in traces) {
+      val log = File(logFile).inputStream().use { InputLog.readFrom(it) }
+      val trace = File(traceFile).inputStream().use { StateTrace.readFrom(it) }
+      require(log.leagueLevel == trace.leagueLevel && log.seed == trace.seed) {
+        "$traceFile is not a trace of $logFile"
+      }
+      check("referee", trace, replay(log))
+    }
+
+    println(if (divergences == 0) "No divergence" else "$divergences divergences")
+    if (divergences > 0) System.exit(1)
+  }
+}
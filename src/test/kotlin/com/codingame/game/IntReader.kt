@@ -0,0 +1,33 @@
+package com.codingame.game
+
+import java.io.InputStream
+
+/** Reads whitespace-separated ints straight from the bytes of a stream, in large chunks and without allocating. */
+class IntReader(private val stdin: InputStream) {
+  private val buffer = ByteArray(1 shl 16)
+  private var length = 0
+  private var position = 0
+
+  private fun read(): Int {
+    if (position == length) {
+      length = Math.max(stdin.read(buffer, 0, buffer.size), 0)
+      position = 0
+      if (length == 0) return -1
+    }
+    return buffer[position++].toInt()
+  }
+
+  fun nextInt(): Int {
+    var c = read()
+    while (c != -1 && c <= ' '.toInt()) c = read()
+    if (c == -1) throw NoSuchElementException()
+    val negative = c == '-'.toInt()
+    if (negative) c = read()
+    var value = 0
+    while (c >= '0'.toInt() && c <= '9'.toInt()) {
+      value = value * 10 + (c - '0'.toInt())
+      c = read()
+    }
+    return if (negative) -value else value
+  }
+}
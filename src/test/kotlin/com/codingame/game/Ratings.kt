@@ -0,0 +1,94 @@
+package com.codingame.game
+
+import java.util.*
+
+/**
+ * One game between two contestants, by index; [score] is [first]'s: 1 for a win, 0.5 for a draw, 0 for a loss. Either
+ * may have run out of time.
+ */
+class GameResult(
+  val first: Int, val second: Int, val score: Double,
+  val firstTimedOut: Boolean = false, val secondTimedOut: Boolean = false
+) {
+  fun timedOut(contestant: Int) = first == contestant && firstTimedOut || second == contestant && secondTimedOut
+}
+
+/** A contestant's rating and record; a game it ran out of time in counts as a timeout, not a win, draw or loss. */
+class Rating(
+  val name: String, val elo: Double, val low: Double, val high: Double,
+  val wins: Int, val draws: Int, val losses: Int, val timeouts: Int
+) {
+  val games get() = wins + draws + losses + timeouts
+}
+
+/**
+ * Elo ratings fitted to a set of games with the Bradley-Terry model, which the Elo scale is a reparametrization of.
+ * Each contestant also gets one virtual draw against an average opponent, so that one who won or lost every game
+ * still gets a finite rating. The 95% interval comes from refitting on games resampled with replacement.
+ */
+object Ratings {
+  private const val ITERATIONS = 500
+  private const val MEAN = 1500.0
+
+  fun rate(
+    names: List<String>, games: List<GameResult>, resamples: Int = 200, random: Random = Random(0)
+  ): List<Rating> {
+    val elo = fit(names.size, games)
+    val samples = Array(names.size) { DoubleArray(resamples) }
+    if (games.isNotEmpty()) {
+      repeat(resamples) { sample ->
+        val resampled = fit(names.size, List(games.size) { games[random.nextInt(games.size)] })
+        resampled.forEachIndexed { i, rating -> samples[i][sample] = rating }
+      }
+    }
+    return names.mapIndexed { i, name ->
+      samples[i].sort()
+      val record = games.filter { !it.timedOut(i) }
+      Rating(
+        name, elo[i],
+        if (games.isEmpty()) elo[i] else samples[i][(resamples * 0.025).toInt()],
+        if (games.isEmpty()) elo[i] else samples[i][Math.min((resamples * 0.975).toInt(), resamples - 1)],
+        record.count { it.first == i && it.score == 1.0 || it.second == i && it.score == 0.0 },
+        record.count { (it.first == i || it.second == i) && it.score == 0.5 },
+        record.count { it.first == i && it.score == 0.0 || it.second == i && it.score == 1.0 },
+        games.count { it.timedOut(i) }
+      )
+    }
+  }
+
+  /** @return the Elo rating of each contestant, averaging [MEAN] */
+  fun fit(count: Int, games: List<GameResult>): DoubleArray {
+    // points scored and games played against each opponent, the prior draw included
+    val points = DoubleArray(count) { 0.5 }
+    val played = Array(count) { IntArray(count) }
+    for (game in games) {
+      points[game.first] += game.score
+      points[game.second] += 1 - game.score
+      played[game.first][game.second]++
+      played[game.second][game.first]++
+    }
+
+    // minorization-maximization: each strength is refitted to the points it should score against the current others
+    val strength = DoubleArray(count) { 1.0 }
+    repeat(ITERATIONS) {
+      var change = 0.0
+      for (i in 0 until count) {
+        var expected = 1 / (strength[i] + 1)
+        for (j in 0 until count) {
+          if (played[i][j] > 0) expected += played[i][j] / (strength[i] + strength[j])
+        }
+        val refitted = points[i] / expected
+        change = Math.max(change, Math.abs(Math.log(refitted / strength[i])))
+        strength[i] = refitted
+      }
+      if (change < 1e-9) return toElo(strength)
+    }
+    return toElo(strength)
+  }
+
+  private fun toElo(strength: DoubleArray): DoubleArray {
+    val elo = DoubleArray(strength.size) { 400 * Math.log10(strength[it]) }
+    val shift = MEAN - elo.average()
+    return DoubleArray(elo.size) { elo[it] + shift }
+  }
+}
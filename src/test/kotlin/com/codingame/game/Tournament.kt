@@ -0,0 +1,339 @@
+package com.codingame.game
+
+import java.io.*
+import java.lang.management.ManagementFactory
+import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+/** A running bot, fed and read a line at a time. */
+interface BotInstance {
+  fun send(lines: List<String>)
+  /** @return the lines answered before the deadline, fewer than [count] if it ran out */
+  fun receive(count: Int, timeoutMs: Long): List<String>
+  fun stop()
+}
+
+/**
+ * A bot entered in a [Tournament]; every game gets a fresh instance. The spec is either `cmd:` and a command line, run
+ * as a process, or the name of a test player class like [CSJPlayer], run on a thread of this JVM.
+ */
+class Contestant(val name: String, val launch: () -> BotInstance) {
+  companion object {
+    /** @param spec a spec as described above, optionally prefixed with `name=` */
+    fun of(spec: String): Contestant {
+      val named = spec.indexOf('=').let { if (it > 0 && !spec.startsWith("cmd:")) it else -1 }
+      val name = if (named > 0) spec.substring(0, named) else spec.removePrefix("cmd:")
+      val bot = spec.substring(named + 1)
+      if (bot.startsWith("cmd:")) {
+        val command = bot.removePrefix("cmd:").trim().split(Regex("\\s+"))
+        return Contestant(name) { ProcessBot(command) }
+      }
+      val type = listOf(bot, "com.codingame.game.$bot")
+        .mapNotNull { try { Class.forName(it) } catch (e: ClassNotFoundException) { null } }
+        .firstOrNull() ?: throw IllegalArgumentException("No bot class $bot")
+      val constructor = type.getConstructor(InputStream::class.java, PrintStream::class.java, PrintStream::class.java)
+      return Contestant(name) {
+        ThreadBot(name) { stdin, stdout, stderr -> constructor.newInstance(stdin, stdout, stderr) }
+      }
+    }
+  }
+}
+
+private abstract class LineBot : BotInstance {
+  protected val answers = LinkedBlockingQueue<String>()
+
+  override fun receive(count: Int, timeoutMs: Long): List<String> {
+    val deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs)
+    val lines = mutableListOf<String>()
+    while (lines.size < count) {
+      lines += answers.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS) ?: break
+    }
+    return lines
+  }
+}
+
+/**
+ * Runs a test player on a daemon thread, with its stdin and stdout backed by queues. Its time is the CPU time of that
+ * thread, so that it does not run out of time waiting for a core while other games keep them all busy; one that waits
+ * without spending any still gives up after [WALL_CLOCK_FACTOR] times as long on the wall clock.
+ */
+private class ThreadBot(name: String, start: (InputStream, PrintStream, PrintStream) -> Any) : LineBot() {
+  private val cpu = ManagementFactory.getThreadMXBean()
+  private var cpuAtSend = 0L
+  private val input = QueueInputStream()
+  private val thread = Thread {
+    try {
+      start(input, PrintStream(LineOutputStream(answers), true), PrintStream(NullOutputStream))
+    } catch (e: Throwable) {
+      // reading past the end of the input is how the game's end reaches it; any other error leaves it silent
+    }
+  }
+
+  init {
+    thread.name = name
+    thread.isDaemon = true
+    thread.start()
+  }
+
+  override fun send(lines: List<String>) {
+    cpuAtSend = cpu.getThreadCpuTime(thread.id)
+    input.offer(lines.joinToString("") { it + "\n" }.toByteArray())
+  }
+
+  override fun receive(count: Int, timeoutMs: Long): List<String> {
+    if (!cpu.isThreadCpuTimeSupported || !cpu.isThreadCpuTimeEnabled) return super.receive(count, timeoutMs)
+    val budget = TimeUnit.MILLISECONDS.toNanos(timeoutMs)
+    val deadline = System.nanoTime() + budget * WALL_CLOCK_FACTOR
+    val lines = mutableListOf<String>()
+    while (lines.size < count) {
+      val line = answers.poll(POLL_MS, TimeUnit.MILLISECONDS)
+      if (line != null) {
+        lines += line
+      } else if (!thread.isAlive || cpuSinceSend() > budget || System.nanoTime() > deadline) {
+        break
+      }
+    }
+    return lines
+  }
+
+  override fun stop() = input.close()
+
+  private fun cpuSinceSend() = cpu.getThreadCpuTime(thread.id) - cpuAtSend
+
+  companion object {
+    const val WALL_CLOCK_FACTOR = 10
+    private const val POLL_MS = 1L
+  }
+}
+
+private class ProcessBot(command: List<String>) : LineBot() {
+  private val process = ProcessBuilder(command).start()
+  private val stdin = BufferedWriter(OutputStreamWriter(process.outputStream))
+
+  init {
+    pump(process.inputStream) { answers += it }
+    pump(process.errorStream) { }
+  }
+
+  private fun pump(stream: InputStream, onLine: (String) -> kotlin.Unit) {
+    val thread = Thread {
+      try {
+        stream.bufferedReader().forEachLine(onLine)
+      } catch (e: IOException) {
+        // stopped
+      }
+    }
+    thread.isDaemon = true
+    thread.start()
+  }
+
+  override fun send(lines: List<String>) {
+    try {
+      lines.forEach { stdin.write(it); stdin.newLine() }
+      stdin.flush()
+    } catch (e: IOException) {
+      // the bot exited; it will time out
+    }
+  }
+
+  override fun stop() {
+    process.destroy()
+  }
+}
+
+private class QueueInputStream : InputStream() {
+  private val chunks = LinkedBlockingQueue<ByteArray>()
+  private var chunk = ByteArray(0)
+  private var position = 0
+
+  fun offer(bytes: ByteArray) { if (bytes.isNotEmpty()) chunks += bytes }
+
+  override fun close() { chunks += ByteArray(0) }
+
+  override fun read(): Int {
+    val one = ByteArray(1)
+    return if (read(one, 0, 1) < 0) -1 else one[0].toInt() and 0xff
+  }
+
+  override fun read(b: ByteArray, off: Int, len: Int): Int {
+    if (position == chunk.size) {
+      chunk = chunks.take()
+      position = 0
+      if (chunk.isEmpty()) {
+        chunks += chunk
+        return -1
+      }
+    }
+    val count = Math.min(len, chunk.size - position)
+    System.arraycopy(chunk, position, b, off, count)
+    position += count
+    return count
+  }
+}
+
+private class LineOutputStream(private val lines: MutableCollection<String>) : OutputStream() {
+  private val line = ByteArrayOutputStream()
+
+  override fun write(b: Int) {
+    if (b == '\n'.toInt()) {
+      lines += line.toString().trimEnd('\r')
+      line.reset()
+    } else {
+      line.write(b)
+    }
+  }
+}
+
+private object NullOutputStream : OutputStream() {
+  override fun write(b: Int) {}
+  override fun write(b: ByteArray, off: Int, len: Int) {}
+}
+
+/**
+ * Plays with fresh instances of [contestants], indexed like [HeadlessMatch.players]; [onTimeout] gets the index of a
+ * contestant that ran out of time. @return the final scores
+ */
+fun HeadlessMatch.play(
+  contestants: List<Contestant>, firstTurnTimeoutMs: Long, turnTimeoutMs: Long, onTimeout: (Int) -> kotlin.Unit = { }
+): List<Int> {
+  val bots = contestants.map { it.launch() }
+  try {
+    val answered = BooleanArray(bots.size)
+    return play { player, lines ->
+      val index = players.indexOf(player)
+      bots[index].send(lines)
+      val timeout = if (answered[index]) turnTimeoutMs else firstTurnTimeoutMs
+      answered[index] = true
+      bots[index].receive(player.expectedOutputLines, timeout).also {
+        if (it.size < player.expectedOutputLines) onTimeout(index)
+      }
+    }
+  } finally {
+    bots.forEach { it.stop() }
+  }
+}
+
+/**
+ * Plays [contestants] against each other on all cores, with no view. Every pairing plays each of [seeds] twice, once
+ * from each side, so that neither bot is favoured by the map. Results are kept in [games] for [ratings], which counts
+ * the games a contestant lost on time apart from the others: under load, those say more about the machine than the bot.
+ */
+class Tournament(
+  val contestants: List<Contestant>,
+  private val leagueLevel: Int,
+  private val seeds: List<Long>,
+  private val threads: Int = Runtime.getRuntime().availableProcessors()
+) {
+  var firstTurnTimeoutMs = 5000L
+  var turnTimeoutMs = 100L
+  /** Gets a line per game played, when set. */
+  var log: PrintStream? = null
+  val games = mutableListOf<GameResult>()
+
+  fun roundRobin() {
+    play(contestants.indices.flatMap { i -> (i + 1 until contestants.size).map { j -> i to j } })
+  }
+
+  /**
+   * Each round pairs contestants of close points, where one game won is one point, without repeating a pairing while
+   * others remain. With an odd count, the last contestant sits the round out.
+   */
+  fun swiss(rounds: Int, random: Random = Random(0)) {
+    val met = mutableSetOf<Pair<Int, Int>>()
+    repeat(rounds) {
+      val points = DoubleArray(contestants.size)
+      synchronized(games) {
+        games.forEach { points[it.first] += it.score; points[it.second] += 1 - it.score }
+      }
+      val standing = contestants.indices.shuffled(random).sortedByDescending { points[it] }.toMutableList()
+      val pairings = mutableListOf<Pair<Int, Int>>()
+      while (standing.size >= 2) {
+        val first = standing.removeAt(0)
+        val opponent = standing.indexOfFirst { (Math.min(first, it) to Math.max(first, it)) !in met }
+        val second = standing.removeAt(Math.max(opponent, 0))
+        met += Math.min(first, second) to Math.max(first, second)
+        pairings += first to second
+      }
+      play(pairings)
+    }
+  }
+
+  fun ratings() = synchronized(games) { Ratings.rate(contestants.map { it.name }, games.toList()) }
+
+  private fun play(pairings: List<Pair<Int, Int>>) {
+    val executor = Executors.newFixedThreadPool(threads)
+    try {
+      val matches = pairings.flatMap { (a, b) ->
+        seeds.flatMap { seed -> listOf(Triple(a, b, seed), Triple(b, a, seed)) }
+      }
+      executor.invokeAll(matches.map { (first, second, seed) -> Callable { playGame(first, second, seed) } })
+        .forEach { it.get() }
+    } finally {
+      executor.shutdown()
+    }
+  }
+
+  private fun playGame(first: Int, second: Int, seed: Long) {
+    val timedOut = BooleanArray(2)
+    val scores = HeadlessMatch(leagueLevel, seed)
+      .play(listOf(contestants[first], contestants[second]), firstTurnTimeoutMs, turnTimeoutMs) { timedOut[it] = true }
+    val score = Math.signum((scores[0] - scores[1]).toDouble()) / 2 + 0.5
+    synchronized(games) { games += GameResult(first, second, score, timedOut[0], timedOut[1]) }
+    val names = listOf(contestants[first].name, contestants[second].name)
+    val timeouts = names.filterIndexed { i, _ -> timedOut[i] }.joinToString("") { ", $it timed out" }
+    log?.println("seed $seed: ${names[0]} ${scores[0]} - ${scores[1]} ${names[1]}$timeouts")
+  }
+}
+
+private val defaultPool = listOf(
+  "CSJPlayer", "ThibaudPlayer", "Level1Player", "Level2Player",
+  "AllKnightPlayer", "AllArcherPlayer", "AllGiantsPlayer", "AllTowersPlayer"
+) + (1..4).map { "boss$it=cmd:java config/level$it/Boss.java" }
+
+/**
+ * `Tournament [--league 4] [--seeds 5] [--first-seed 1] [--swiss ROUNDS] [--threads N] [--timeout MS] [--bot SPEC]...`
+ *
+ * Plays a round robin, or Swiss rounds, and prints each contestant's rating. Bots are given as in [Contestant.of];
+ * without any, the test players and the league bosses play. The bosses need a `java` that runs source files, started
+ * from the project directory. The timeout is CPU time for bots run in this JVM, wall clock time for commands.
+ */
+fun main(args: Array<String>) {
+  var league = 4
+  var seedCount = 5
+  var firstSeed = 1L
+  var swissRounds = 0
+  var threads = Runtime.getRuntime().availableProcessors()
+  var timeout = 100L
+  val specs = mutableListOf<String>()
+  var i = 0
+  while (i < args.size) {
+    val value = args.getOrElse(i + 1) { throw IllegalArgumentException("${args[i]} needs a value") }
+    when (args[i]) {
+      "--league" -> league = value.toInt()
+      "--seeds" -> seedCount = value.toInt()
+      "--first-seed" -> firstSeed = value.toLong()
+      "--swiss" -> swissRounds = value.toInt()
+      "--threads" -> threads = value.toInt()
+      "--timeout" -> timeout = value.toLong()
+      "--bot" -> specs += value
+      else -> throw IllegalArgumentException("Unknown option ${args[i]}")
+    }
+    i += 2
+  }
+
+  val contestants = (if (specs.isEmpty()) defaultPool else specs).map { Contestant.of(it) }
+  val tournament = Tournament(contestants, league, List(seedCount) { firstSeed + it }, threads)
+  tournament.turnTimeoutMs = timeout
+  tournament.log = System.err
+  if (swissRounds > 0) tournament.swiss(swissRounds) else tournament.roundRobin()
+
+  println("%-20s %6s %15s %5s %5s %5s %7s".format("bot", "elo", "95%", "won", "drawn", "lost", "timeout"))
+  tournament.ratings().sortedByDescending { it.elo }.forEach {
+    val interval = "%.0f..%.0f".format(it.low, it.high)
+    val record = "%5d %5d %5d %7d".format(it.wins, it.draws, it.losses, it.timeouts)
+    println("%-20s %6.0f %15s %s".format(it.name, it.elo, interval, record))
+  }
+}